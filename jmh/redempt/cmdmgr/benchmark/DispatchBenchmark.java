@@ -0,0 +1,96 @@
+package redempt.cmdmgr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.TypeProvider;
+
+/**
+ * Running commands through {@link Command#execute(CommandSender, String[])}: a subcommand near the end of a large
+ * node, a subcommand found through aliases and overloads, an argument converted by a type provider, and a mistyped
+ * subcommand which is answered with suggestions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+	@Param({"10", "1000"})
+	public int children;
+
+	private Command command;
+	private CommandSender console;
+	private CommandSender player;
+	private String[] leaf;
+	private String[] alias;
+	private String[] deep;
+	private String[] overload;
+	private String[] provided;
+	private String[] mistyped;
+
+	@Setup
+	public void setup() {
+		command = Fixtures.load(Fixtures.tree(children)).get(0);
+		Fixtures.quietly(() -> command.registerTypeProvider(new TypeProvider<>("player", (s) -> s.startsWith("player") ? s : null)));
+		console = Fixtures.console();
+		player = Fixtures.player("Steve");
+		leaf = new String[] {"sub" + (children - 1), "42", "word"};
+		alias = new String[] {"alias" + (children / 2), "42", "word"};
+		deep = new String[] {"group", "inner", "deep", "1.5", "the", "rest", "of", "it"};
+		overload = new String[] {"group", "7"};
+		provided = new String[] {"give", "player12", "5"};
+		mistyped = new String[] {"sbu" + (children - 1), "42", "word"};
+	}
+
+	@Benchmark
+	public void leaf() {
+		command.execute(console, leaf);
+	}
+
+	@Benchmark
+	public void leafAsPlayer() {
+		command.execute(player, leaf);
+	}
+
+	@Benchmark
+	public void alias() {
+		command.execute(console, alias);
+	}
+
+	@Benchmark
+	public void deep() {
+		command.execute(console, deep);
+	}
+
+	@Benchmark
+	public void overload() {
+		command.execute(console, overload);
+	}
+
+	@Benchmark
+	public void provided() {
+		command.execute(console, provided);
+	}
+
+	@Benchmark
+	public void mistyped() {
+		command.execute(console, mistyped);
+	}
+
+}
@@ -0,0 +1,170 @@
+package redempt.cmdmgr.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.CommandInvoker;
+
+/**
+ * Command trees and senders shared by the benchmarks. Senders are proxies, so no server is needed.
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * A command with the given number of subcommands, each taking an int and a string, with an overload taking an int
+	 * and a deeper subcommand, as a command file.
+	 */
+	static String tree(int children) {
+		StringBuilder builder = new StringBuilder("bench {\n");
+		for (int i = 0; i < children; i++) {
+			builder.append("\tsub").append(i).append(",alias").append(i).append(" int:n string:s {\n\t\thook leaf\n\t\thelp Runs leaf ").append(i).append("\n\t\tpermission bench.sub").append(i % 8).append("\n\t}\n");
+		}
+		builder.append("\tgroup {\n\t\tinner {\n\t\t\tdeep double:d multistring:rest {\n\t\t\t\thook deep\n\t\t\t}\n\t\t}\n\t\t_ int:n {\n\t\t\thook overload\n\t\t}\n\t}\n");
+		builder.append("\tgive player:target int:amount {\n\t\thook give\n\t}\n");
+		return builder.append("}\n").toString();
+	}
+
+	/**
+	 * A command whose subcommands nest to the given depth, with the given number of subcommands at each level, each
+	 * with help and one of eight permissions, as a command file.
+	 */
+	static String deepTree(int depth, int width) {
+		StringBuilder builder = new StringBuilder("bench {\n");
+		appendLevel(builder, depth, width, "\t", new int[1]);
+		return builder.append("}\n").toString();
+	}
+
+	private static void appendLevel(StringBuilder builder, int depth, int width, String indent, int[] count) {
+		for (int i = 0; i < width; i++) {
+			int node = count[0]++;
+			builder.append(indent).append("node").append(node).append(" {\n");
+			builder.append(indent).append("\thelp Runs node ").append(node).append("\n");
+			builder.append(indent).append("\tpermission bench.sub").append(node % 8).append("\n");
+			if (depth > 1) {
+				appendLevel(builder, depth - 1, width, indent + "\t", count);
+			} else {
+				builder.append(indent).append("\thook leaf\n");
+			}
+			builder.append(indent).append("}\n");
+		}
+	}
+
+	/**
+	 * Loads commands from a command file without printing a line for each one, and binds every hook to do nothing.
+	 */
+	static List<Command> load(String file) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(int b) {
+			}
+
+		}));
+		try {
+			List<Command> commands = Command.fromStreamMulti(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)));
+			Map<String, CommandInvoker> hooks = new HashMap<>();
+			for (String name : new String[] {"leaf", "deep", "overload", "give"}) {
+				hooks.put(name, (sender, args) -> {});
+			}
+			for (Command command : commands) {
+				command.bindHooks(null, hooks);
+			}
+			return commands;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Runs an action without printing anything it prints, such as type providers being registered.
+	 */
+	static void quietly(Runnable action) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(int b) {
+			}
+
+		}));
+		try {
+			action.run();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * A sender other than a player, with every permission, which ignores messages.
+	 */
+	static CommandSender console() {
+		return (CommandSender) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {CommandSender.class}, (proxy, method, args) -> answer(proxy, method.getName(), args, "CONSOLE", null));
+	}
+
+	/**
+	 * A player with every permission, which ignores messages.
+	 */
+	static Player player(String name) {
+		return player(name, (permission) -> true);
+	}
+
+	/**
+	 * A player with the permissions accepted by a predicate, which ignores messages.
+	 */
+	static Player player(String name, Predicate<String> permissions) {
+		UUID id = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+		return (Player) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {Player.class}, (proxy, method, args) -> {
+			if (method.getName().equals("hasPermission")) {
+				return permissions.test((String) args[0]);
+			}
+			return answer(proxy, method.getName(), args, name, id);
+		});
+	}
+
+	/**
+	 * A server which answers every call with null, enough to create a command map to register commands with.
+	 */
+	static Server server() {
+		return (Server) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {Server.class}, (proxy, method, args) -> answer(proxy, method.getName(), args, "Bench", null));
+	}
+
+	private static Object answer(Object proxy, String method, Object[] args, String name, UUID id) {
+		switch (method) {
+			case "hasPermission":
+			case "isOp":
+				return true;
+			case "getName":
+			case "toString":
+				return name;
+			case "getUniqueId":
+				return id;
+			case "hashCode":
+				return name.hashCode();
+			case "equals":
+				return proxy == args[0];
+			default:
+				return null;
+		}
+	}
+
+}
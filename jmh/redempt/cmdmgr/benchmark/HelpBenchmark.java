@@ -0,0 +1,85 @@
+package redempt.cmdmgr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.PermissionCache;
+
+/**
+ * Showing the help page of a wide tree of 1000 subcommands and of a deep tree of 1092 subcommands nested six deep,
+ * through {@link Command#showHelp(CommandSender, int)}. Help text is cached for each set of permissions a sender
+ * has, and each player's permission decisions are cached by {@link PermissionCache}, so the page is shown with both
+ * caches filled, with the player's decisions forgotten, with a different set of permissions every time, and to the
+ * console, whose permissions are never cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpBenchmark {
+
+	/**
+	 * More than the number of permission sets whose help text is kept, so every page is rendered again
+	 */
+	private static final int PERMISSION_SETS = 256;
+
+	@Param({"wide", "deep"})
+	public String shape;
+
+	private Command command;
+	private CommandSender console;
+	private Player player;
+	private Player[] players;
+	private int next;
+
+	@Setup
+	public void setup() {
+		command = Fixtures.load(shape.equals("wide") ? Fixtures.tree(1000) : Fixtures.deepTree(6, 3)).get(0);
+		console = Fixtures.console();
+		player = Fixtures.player("Steve");
+		players = new Player[PERMISSION_SETS];
+		for (int i = 0; i < players.length; i++) {
+			int granted = i;
+			// Each player has a different subset of the eight permissions the trees use
+			players[i] = Fixtures.player("Player" + i, (p) -> !p.startsWith("bench.sub") || (granted >> (p.charAt(p.length() - 1) - '0') & 1) != 0);
+		}
+	}
+
+	@Benchmark
+	public void cached() {
+		command.showHelp(player, 1);
+	}
+
+	@Benchmark
+	public void permissionsForgotten() {
+		PermissionCache.invalidate(player);
+		command.showHelp(player, 1);
+	}
+
+	@Benchmark
+	public void newPermissionSet() {
+		command.showHelp(players[next++ % PERMISSION_SETS], 1);
+	}
+
+	@Benchmark
+	public void console() {
+		command.showHelp(console, 1);
+	}
+
+}
@@ -0,0 +1,85 @@
+package redempt.cmdmgr.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import redempt.cmdmgr.CommandDefinition;
+
+/**
+ * The command file parser CmdMgr used before {@link redempt.cmdmgr.CommandParser}, kept to benchmark against. It
+ * reads the file by concatenating lines, and splits the whole file into lines again for every command it parses.
+ * It builds definitions rather than commands, so that only parsing is compared.
+ */
+final class LegacyParser {
+
+	private LegacyParser() {
+	}
+
+	static List<CommandDefinition> parse(InputStream stream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+		String combine = "";
+		String line;
+		while ((line = reader.readLine()) != null) {
+			combine += line + "\n";
+		}
+		reader.close();
+		List<CommandDefinition> all = new ArrayList<>();
+		int[] end = new int[1];
+		CommandDefinition definition;
+		int lineNumber = 0;
+		while ((definition = parseSingle(combine, lineNumber, end)) != null) {
+			all.add(definition);
+			lineNumber = end[0] + 1;
+		}
+		return all;
+	}
+
+	private static CommandDefinition parseSingle(String string, int lineNumber, int[] end) {
+		String[] split = string.split("\n");
+		CommandDefinition definition = null;
+		List<CommandDefinition> children = new ArrayList<>();
+		int depth = 0;
+		for (int lineIter = lineNumber; lineIter < split.length; lineIter++) {
+			String line = split[lineIter].trim();
+			if (line.endsWith("{")) {
+				depth++;
+				if (depth == 1) {
+					String[] lineSplit = line.split(" ");
+					String[][] args = new String[lineSplit.length - 2][];
+					for (int i = 1; i < lineSplit.length - 1; i++) {
+						args[i - 1] = lineSplit[i].split(":");
+					}
+					definition = new CommandDefinition(lineSplit[0].split(","), args, lineIter + 1);
+				} else if (depth == 2) {
+					children.add(parseSingle(string, lineIter, new int[1]));
+				}
+			}
+			if (line.equals("}")) {
+				depth--;
+				if (depth == 0) {
+					for (CommandDefinition child : children) {
+						definition.addChild(child);
+					}
+					end[0] = lineIter;
+					return definition;
+				}
+			}
+			if (depth == 1) {
+				for (String directive : new String[] {"hook", "permission", "users", "help"}) {
+					if (line.startsWith(directive + " ")) {
+						definition.setDirective(directive, line.replaceFirst(directive + " ", ""));
+					}
+				}
+				if (line.startsWith("hidesub")) {
+					definition.setDirective("hidesub", null);
+				}
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,82 @@
+package redempt.cmdmgr.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.CommandDefinition;
+import redempt.cmdmgr.CommandParser;
+
+/**
+ * Loading a generated command file: the streaming {@link CommandParser} against the parser it replaced, and loading
+ * the commands from the file with {@link Command#fromStreamMulti(java.io.InputStream)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({"100", "1000"})
+	public int children;
+
+	private byte[] file;
+	private PrintStream out;
+
+	@Setup
+	public void setup() {
+		file = Fixtures.tree(children).getBytes(StandardCharsets.UTF_8);
+		out = System.out;
+		// Loading commands prints a line for each one
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(int b) {
+			}
+
+		}));
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public List<CommandDefinition> streaming() throws IOException {
+		return CommandParser.parse(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8)));
+	}
+
+	@Benchmark
+	public List<CommandDefinition> legacy() throws IOException {
+		return LegacyParser.parse(new ByteArrayInputStream(file));
+	}
+
+	@Benchmark
+	public List<Command> load() throws IOException {
+		return Command.fromStreamMulti(new ByteArrayInputStream(file));
+	}
+
+}
@@ -0,0 +1,97 @@
+package redempt.cmdmgr.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.SimpleCommandMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.CommandHook;
+
+/**
+ * Registering top-level commands, each with ten subcommands, with a command map on a stub server set through
+ * {@link Command#setCommandMap(SimpleCommandMap)}: all at once with a listener through
+ * {@link Command#registerAll(String, Object, List)}, and one at a time with their hooks already bound, as generated
+ * code does. Commands are never unregistered, so each call registers commands loaded fresh for it, and the calls are
+ * timed one at a time so the commands kept from earlier calls stay within what a server with many plugins has.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class RegisterBenchmark {
+
+	@Param({"10", "1000"})
+	public int commands;
+
+	private String file;
+	private Listener listener = new Listener();
+
+	@Setup
+	public void setup() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < commands; i++) {
+			builder.append("cmd").append(i).append(",alias").append(i).append(" {\n\thelp Command ").append(i).append('\n');
+			for (int j = 0; j < 10; j++) {
+				builder.append("\tsub").append(j).append(" int:n {\n\t\thook leaf\n\t\tpermission bench.sub").append(j % 8).append("\n\t}\n");
+			}
+			builder.append("}\n");
+		}
+		file = builder.toString();
+	}
+
+	/**
+	 * Commands to register, and an empty command map to register them with, made again for every call.
+	 */
+	@State(Scope.Thread)
+	public static class Loaded {
+
+		private List<Command> commands;
+
+		@Setup(Level.Iteration)
+		public void setup(RegisterBenchmark benchmark) {
+			commands = Fixtures.load(benchmark.file);
+			Command.setCommandMap(new SimpleCommandMap(Fixtures.server()));
+		}
+
+	}
+
+	@Benchmark
+	public List<Command> registerAll(Loaded loaded) {
+		// registerAll prints how long it took
+		Fixtures.quietly(() -> Command.registerAll("bench", listener, loaded.commands));
+		return loaded.commands;
+	}
+
+	@Benchmark
+	public List<Command> registerEach(Loaded loaded) {
+		for (Command command : loaded.commands) {
+			command.register("bench");
+		}
+		return loaded.commands;
+	}
+
+	public static class Listener {
+
+		@CommandHook("leaf")
+		public void leaf(CommandSender sender, int n) {
+		}
+
+	}
+
+}
@@ -0,0 +1,88 @@
+package redempt.cmdmgr.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+import redempt.cmdmgr.TypeProvider;
+
+/**
+ * Tab completion through {@link Command#tabComplete(CommandSender, String[])}: subcommand names by prefix, a type
+ * provider with many completions, and a sender typing a provider argument one letter at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TabCompleteBenchmark {
+
+	@Param({"10", "1000"})
+	public int children;
+
+	private Command command;
+	private CommandSender console;
+	private String[] empty;
+	private String[] prefix;
+	private String[] provider;
+	private String[][] typing;
+
+	@Setup
+	public void setup() {
+		command = Fixtures.load(Fixtures.tree(children)).get(0);
+		List<String> players = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			players.add("player" + i);
+		}
+		Fixtures.quietly(() -> command.registerTypeProvider(new TypeProvider<>("player", (s) -> s).setTab((s) -> players)));
+		console = Fixtures.console();
+		empty = new String[] {""};
+		prefix = new String[] {"sub1"};
+		provider = new String[] {"give", "player9"};
+		typing = new String[][] {{"give", ""}, {"give", "p"}, {"give", "pl"}, {"give", "pla"}, {"give", "player"}, {"give", "player4"}, {"give", "player42"}};
+	}
+
+	@Benchmark
+	public List<String> names() {
+		return command.tabComplete(console, empty);
+	}
+
+	@Benchmark
+	public List<String> namesByPrefix() {
+		return command.tabComplete(console, prefix);
+	}
+
+	@Benchmark
+	public List<String> provider() {
+		return command.tabComplete(console, provider);
+	}
+
+	/**
+	 * One sender typing a player name, with a completion for every letter.
+	 */
+	@Benchmark
+	public int typing() {
+		int count = 0;
+		for (String[] args : typing) {
+			List<String> completions = command.tabComplete(console, args);
+			count += completions == null ? 0 : completions.size();
+		}
+		return count;
+	}
+
+}
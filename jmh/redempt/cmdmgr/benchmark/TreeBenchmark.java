@@ -0,0 +1,143 @@
+package redempt.cmdmgr.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redempt.cmdmgr.Command;
+
+/**
+ * Large command trees: the heap kept by a loaded tree, reported as the bytesPerNode counter of footprint, and adding
+ * children one at a time with {@link Command#addChild(Command)} against all at once with
+ * {@link Command#addChildren(java.util.Collection)}, and one at a time running each child as it is added, which needs
+ * the dispatch table to be up to date after every add.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TreeBenchmark {
+
+	@Param({"10000", "100000"})
+	public int nodes;
+
+	private String file;
+	private Command tree;
+
+	@Setup
+	public void setup() {
+		file = Fixtures.tree(nodes);
+	}
+
+	/**
+	 * Top-level commands to add as children, and the command to add them to, made again for every call.
+	 */
+	@State(Scope.Thread)
+	public static class Leaves {
+
+		private List<Command> leaves;
+		private Command root;
+		private CommandSender console = Fixtures.console();
+
+		@Setup(Level.Invocation)
+		public void setup(TreeBenchmark benchmark) {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < benchmark.nodes; i++) {
+				builder.append("leaf").append(i).append(" int:n {\n\thook leaf\n}\n");
+			}
+			leaves = Fixtures.load(builder.toString());
+			root = Fixtures.load("root {\n\thelp Root\n}\n").get(0);
+		}
+
+	}
+
+	/**
+	 * The heap kept by a tree, measured after collecting garbage.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long bytesPerNode;
+
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public int footprint(Footprint footprint) {
+		// Measured once per fork, as counters are summed over iterations and an earlier tree may not be freed yet
+		long before = usedHeap();
+		tree = Fixtures.load(file).get(0);
+		int count = count(tree);
+		footprint.bytesPerNode = (usedHeap() - before) / count;
+		return count;
+	}
+
+	@Benchmark
+	public Command addOneAtATime(Leaves leaves) {
+		for (Command leaf : leaves.leaves) {
+			leaves.root.addChild(leaf);
+		}
+		return leaves.root;
+	}
+
+	@Benchmark
+	public Command addAndRun(Leaves leaves) {
+		for (Command leaf : leaves.leaves) {
+			leaves.root.addChild(leaf);
+			leaves.root.execute(leaves.console, new String[] {leaf.getNames()[0], "1"});
+		}
+		return leaves.root;
+	}
+
+	@Benchmark
+	public Command addAll(Leaves leaves) {
+		leaves.root.addChildren(leaves.leaves);
+		return leaves.root;
+	}
+
+	private static int count(Command command) {
+		int count = 1;
+		for (Command child : command.getChildren()) {
+			count += count(child);
+		}
+		return count;
+	}
+
+	/**
+	 * Collects garbage until the heap in use stops shrinking, as some of it, like strings interned by the last tree,
+	 * is only freed by later collections.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+}
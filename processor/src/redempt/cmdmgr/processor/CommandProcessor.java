@@ -0,0 +1,425 @@
+package redempt.cmdmgr.processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import redempt.cmdmgr.CommandDefinition;
+import redempt.cmdmgr.CommandFile;
+import redempt.cmdmgr.CommandHook;
+import redempt.cmdmgr.CommandParser;
+
+/**
+ * Compiles the command file of each {@link CommandFile} listener into a class which builds the commands and calls
+ * the hooks directly. Unknown hook names, duplicate hooks and hook methods whose parameters do not match the
+ * command's arguments are reported as compile errors.
+ * <p>
+ * The command file is looked up in the directories given by the option -Acmdmgr.resources (separated like a class
+ * path), then on the source path, class path and class output.
+ */
+@SupportedAnnotationTypes("redempt.cmdmgr.CommandFile")
+@SupportedOptions(CommandProcessor.RESOURCES_OPTION)
+public class CommandProcessor extends AbstractProcessor {
+	
+	public static final String RESOURCES_OPTION = "cmdmgr.resources";
+	
+	/**
+	 * The most commands built inline in one generated method, to stay well under the method size limit
+	 */
+	private static final int METHOD_LIMIT = 150;
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (Element element : round.getElementsAnnotatedWith(CommandFile.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@CommandFile can only be used on classes");
+				continue;
+			}
+			TypeElement listener = (TypeElement) element;
+			String path = listener.getAnnotation(CommandFile.class).value();
+			List<CommandDefinition> definitions;
+			try (BufferedReader reader = open(path)) {
+				if (reader == null) {
+					error(listener, "Could not find command file '" + path + "'. Pass -A" + RESOURCES_OPTION + "=<resource directory> to javac.");
+					continue;
+				}
+				definitions = CommandParser.parse(reader);
+			} catch (IOException e) {
+				error(listener, path + ": " + e.getMessage());
+				continue;
+			}
+			Map<String, ExecutableElement> hooks = findHooks(listener);
+			if (hooks == null) {
+				continue;
+			}
+			Map<String, Set<Integer>> multistrings = new HashMap<>();
+			boolean valid = true;
+			for (CommandDefinition definition : definitions) {
+				valid &= validate(listener, path, definition, hooks, multistrings);
+			}
+			if (!valid) {
+				continue;
+			}
+			for (Map.Entry<String, ExecutableElement> entry : hooks.entrySet()) {
+				if (!multistrings.containsKey(entry.getKey())) {
+					processingEnv.getMessager().printMessage(Kind.WARNING, "@CommandHook(\"" + entry.getKey() + "\") is not used by " + path, entry.getValue());
+				}
+			}
+			try {
+				generate(listener, path, definitions, hooks, multistrings);
+			} catch (IOException e) {
+				error(listener, "Could not generate commands class: " + e.getMessage());
+			}
+		}
+		return true;
+	}
+	
+	private BufferedReader open(String path) throws IOException {
+		String option = processingEnv.getOptions().get(RESOURCES_OPTION);
+		if (option != null) {
+			for (String dir : option.split(File.pathSeparator)) {
+				Path file = Paths.get(dir, path);
+				if (Files.isRegularFile(file)) {
+					return Files.newBufferedReader(file);
+				}
+			}
+		}
+		for (StandardLocation location : new StandardLocation[] {StandardLocation.SOURCE_PATH, StandardLocation.CLASS_PATH, StandardLocation.CLASS_OUTPUT}) {
+			try {
+				FileObject file = processingEnv.getFiler().getResource(location, "", path);
+				return new BufferedReader(file.openReader(true));
+			} catch (IOException | RuntimeException e) {
+				// Not in this location
+			}
+		}
+		return null;
+	}
+	
+	private Map<String, ExecutableElement> findHooks(TypeElement listener) {
+		Map<String, ExecutableElement> hooks = new LinkedHashMap<>();
+		boolean valid = true;
+		for (Element member : listener.getEnclosedElements()) {
+			CommandHook hook = member.getAnnotation(CommandHook.class);
+			if (member.getKind() != ElementKind.METHOD || hook == null || member.getModifiers().contains(Modifier.STATIC)) {
+				continue;
+			}
+			if (member.getModifiers().contains(Modifier.PRIVATE)) {
+				error(member, "@CommandHook methods cannot be private");
+				valid = false;
+			} else if (hooks.containsKey(hook.value())) {
+				error(member, "Duplicate @CommandHook(\"" + hook.value() + "\"), also used by " + hooks.get(hook.value()).getSimpleName());
+				valid = false;
+			} else {
+				hooks.put(hook.value(), (ExecutableElement) member);
+			}
+		}
+		return valid ? hooks : null;
+	}
+	
+	private boolean validate(TypeElement listener, String path, CommandDefinition definition, Map<String, ExecutableElement> hooks, Map<String, Set<Integer>> multistrings) {
+		boolean valid = true;
+		String hookName = definition.getDirective("hook");
+		if (hookName != null) {
+			ExecutableElement method = hooks.get(hookName);
+			String[][] args = definition.getArgs();
+			int count = args.length;
+			for (int i = 0; i < args.length; i++) {
+				if (getKind(args[i][0]).equals("MULTISTRING")) {
+					count = i + 1;
+					multistrings.computeIfAbsent(hookName, (k) -> new HashSet<>()).add(i);
+					break;
+				}
+			}
+			multistrings.computeIfAbsent(hookName, (k) -> new HashSet<>());
+			if (method == null) {
+				error(listener, path + " line " + definition.getLine() + ": no @CommandHook(\"" + hookName + "\") method in " + listener.getSimpleName());
+				valid = false;
+			} else if (!matches(method, args, count)) {
+				String expected = "CommandSender";
+				for (int i = 0; i < count; i++) {
+					expected += ", " + args[i][0].replace("*", "");
+				}
+				error(method, "Parameters do not match the arguments of '" + definition.getNames()[0] + "' (" + path + " line " + definition.getLine() + "). Expected: " + expected);
+				valid = false;
+			} else if (definition.getDirective("remote") != null && !takesAnySender(method)) {
+				error(method, "'" + definition.getNames()[0] + "' (" + path + " line " + definition.getLine() + ") is marked remote, so its hook must take a CommandSender, as it runs with a stand-in for the sender on another server");
+				valid = false;
+			}
+		}
+		for (CommandDefinition child : definition.getChildren()) {
+			valid &= validate(listener, path, child, hooks, multistrings);
+		}
+		return valid;
+	}
+	
+	private boolean takesAnySender(ExecutableElement method) {
+		TypeElement sender = processingEnv.getElementUtils().getTypeElement("org.bukkit.command.CommandSender");
+		return sender == null || processingEnv.getTypeUtils().isAssignable(sender.asType(), method.getParameters().get(0).asType());
+	}
+	
+	private boolean matches(ExecutableElement method, String[][] args, int count) {
+		List<? extends VariableElement> params = method.getParameters();
+		if (params.size() != count + 1) {
+			return false;
+		}
+		Types types = processingEnv.getTypeUtils();
+		TypeElement sender = processingEnv.getElementUtils().getTypeElement("org.bukkit.command.CommandSender");
+		TypeMirror first = params.get(0).asType();
+		if (sender != null && !types.isAssignable(sender.asType(), first) && !types.isAssignable(first, sender.asType())) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			TypeMirror param = params.get(i + 1).asType();
+			switch (getKind(args[i][0])) {
+				case "INT":
+					if (param.getKind() != TypeKind.INT && !types.isAssignable(type(Integer.class), param)) {
+						return false;
+					}
+					break;
+				case "DOUBLE":
+					if (param.getKind() != TypeKind.DOUBLE && !types.isAssignable(type(Double.class), param)) {
+						return false;
+					}
+					break;
+				case "STRING":
+				case "MULTISTRING":
+					if (!types.isAssignable(type(String.class), param)) {
+						return false;
+					}
+					break;
+				default:
+					if (param.getKind().isPrimitive()) {
+						return false;
+					}
+			}
+		}
+		return true;
+	}
+	
+	private TypeMirror type(Class<?> clazz) {
+		return processingEnv.getElementUtils().getTypeElement(clazz.getName()).asType();
+	}
+	
+	private static String getKind(String type) {
+		String kind = type.replace("*", "").toUpperCase();
+		switch (kind) {
+			case "STRING":
+			case "INT":
+			case "DOUBLE":
+			case "MULTISTRING":
+				return kind;
+			default:
+				return "CUSTOM";
+		}
+	}
+	
+	private void generate(TypeElement listener, String path, List<CommandDefinition> definitions, Map<String, ExecutableElement> hooks, Map<String, Set<Integer>> multistrings) throws IOException {
+		String packageName = processingEnv.getElementUtils().getPackageOf(listener).getQualifiedName().toString();
+		String listenerName = listener.getQualifiedName().toString();
+		String simpleName = (packageName.isEmpty() ? listenerName : listenerName.substring(packageName.length() + 1)).replace('.', '_') + "Commands";
+		Generator generator = new Generator();
+		StringBuilder out = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			out.append("package ").append(packageName).append(";\n\n");
+		}
+		out.append("import java.util.ArrayList;\nimport java.util.HashMap;\nimport java.util.List;\nimport java.util.Map;\n\n");
+		out.append("import redempt.cmdmgr.Command;\nimport redempt.cmdmgr.CommandDefinition;\nimport redempt.cmdmgr.CommandInvoker;\n\n");
+		out.append("/**\n * Generated by CmdMgr from ").append(path).append(". Do not edit.\n */\n");
+		out.append("public final class ").append(simpleName).append(" {\n\t\n");
+		out.append("\tprivate ").append(simpleName).append("() {\n\t}\n\t\n");
+		out.append("\t/**\n\t * Creates the commands defined in ").append(path).append(" with their hooks bound to the listener.\n");
+		out.append("\t * Register type providers on them, then register them with Command#register(String).\n");
+		out.append("\t * @param listener The listener to call hooks on\n\t * @return The commands, in the order they are defined\n\t */\n");
+		out.append("\t@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+		out.append("\tpublic static List<Command> create(").append(listenerName).append(" listener) {\n");
+		out.append("\t\tMap<String, CommandInvoker> hooks = new HashMap<>();\n");
+		for (Map.Entry<String, ExecutableElement> entry : hooks.entrySet()) {
+			if (multistrings.containsKey(entry.getKey())) {
+				out.append("\t\thooks.put(").append(literal(entry.getKey())).append(", ").append(invoker(entry.getValue(), multistrings.get(entry.getKey()))).append(");\n");
+			}
+		}
+		out.append("\t\tList<Command> commands = new ArrayList<>();\n");
+		for (CommandDefinition definition : definitions) {
+			out.append("\t\tcommands.add(Command.fromDefinition(").append(generator.method(definition)).append("()));\n");
+		}
+		out.append("\t\tfor (Command command : commands) {\n\t\t\tcommand.bindHooks(listener, hooks);\n\t\t}\n");
+		out.append("\t\treturn commands;\n\t}\n\t\n");
+		out.append(generator.methods);
+		out.append("}\n");
+		try (Writer writer = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, listener).openWriter()) {
+			writer.write(out.toString());
+		}
+	}
+	
+	private String invoker(ExecutableElement method, Set<Integer> multistrings) {
+		Types types = processingEnv.getTypeUtils();
+		List<? extends VariableElement> params = method.getParameters();
+		StringBuilder call = new StringBuilder("(sender, args) -> listener.").append(method.getSimpleName()).append("(");
+		for (int i = 0; i < params.size(); i++) {
+			TypeMirror param = params.get(i).asType();
+			String type = types.erasure(param).toString();
+			if (i != 0) {
+				call.append(", ");
+			}
+			if (i == 0) {
+				call.append(type.equals("org.bukkit.command.CommandSender") ? "sender" : "(" + type + ") sender");
+			} else if (param.getKind() == TypeKind.INT) {
+				call.append("(Integer) args[").append(i - 1).append("]");
+			} else if (param.getKind() == TypeKind.DOUBLE) {
+				call.append("(Double) args[").append(i - 1).append("]");
+			} else if (multistrings.contains(i - 1) && !type.equals("java.lang.CharSequence")) {
+				call.append("args[").append(i - 1).append("].toString()");
+			} else {
+				call.append("(").append(type).append(") args[").append(i - 1).append("]");
+			}
+		}
+		return call.append(")").toString();
+	}
+	
+	private static String literal(String string) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (char c : string.toCharArray()) {
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				default:
+					if (c < ' ' || c > '~') {
+						builder.append(String.format("\\u%04x", (int) c));
+					} else {
+						builder.append(c);
+					}
+			}
+		}
+		return builder.append('"').toString();
+	}
+	
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+	
+	/**
+	 * Writes the code which builds CommandDefinitions, splitting it into methods of at most METHOD_LIMIT commands.
+	 */
+	private static class Generator {
+		
+		private StringBuilder methods = new StringBuilder();
+		private int methodCount = 0;
+		private Map<CommandDefinition, Integer> sizes = new HashMap<>();
+		
+		/**
+		 * Writes a method which returns the given definition.
+		 * @return The name of the method
+		 */
+		private String method(CommandDefinition definition) {
+			String name = "definition" + methodCount++;
+			Body body = new Body();
+			String var = node(definition, body);
+			methods.append("\tprivate static CommandDefinition ").append(name).append("() {\n").append(body.code);
+			methods.append("\t\treturn ").append(var).append(";\n\t}\n\t\n");
+			return name;
+		}
+		
+		private String node(CommandDefinition definition, Body body) {
+			String var = "c" + body.count++;
+			body.code.append("\t\tCommandDefinition ").append(var).append(" = new CommandDefinition(new String[] {");
+			String[] names = definition.getNames();
+			for (int i = 0; i < names.length; i++) {
+				body.code.append(i == 0 ? "" : ", ").append(literal(names[i]));
+			}
+			body.code.append("}, new String[][] {");
+			String[][] args = definition.getArgs();
+			for (int i = 0; i < args.length; i++) {
+				body.code.append(i == 0 ? "" : ", ").append("{").append(literal(args[i][0])).append(", ").append(literal(args[i][1])).append("}");
+			}
+			body.code.append("}, ").append(definition.getLine()).append(");\n");
+			for (Map.Entry<String, String> directive : definition.getDirectives().entrySet()) {
+				body.code.append("\t\t").append(var).append(".setDirective(").append(literal(directive.getKey())).append(", ").append(literal(directive.getValue())).append(");\n");
+			}
+			List<CommandDefinition> children = definition.getChildren();
+			int i = 0;
+			while (i < children.size()) {
+				CommandDefinition child = children.get(i);
+				int size = size(child);
+				if (body.count + size <= METHOD_LIMIT) {
+					String childVar = node(child, body);
+					body.code.append("\t\t").append(var).append(".addChild(").append(childVar).append(");\n");
+					i++;
+				} else if (size > METHOD_LIMIT) {
+					String method = method(child);
+					body.code.append("\t\t").append(var).append(".addChild(").append(method).append("());\n");
+					i++;
+				} else {
+					String name = "children" + methodCount++;
+					Body chunk = new Body();
+					while (i < children.size() && chunk.count + size(children.get(i)) <= METHOD_LIMIT) {
+						String childVar = node(children.get(i), chunk);
+						chunk.code.append("\t\tparent.addChild(").append(childVar).append(");\n");
+						i++;
+					}
+					methods.append("\tprivate static void ").append(name).append("(CommandDefinition parent) {\n").append(chunk.code).append("\t}\n\t\n");
+					body.code.append("\t\t").append(name).append("(").append(var).append(");\n");
+				}
+			}
+			return var;
+		}
+		
+		private int size(CommandDefinition definition) {
+			Integer size = sizes.get(definition);
+			if (size == null) {
+				size = 1;
+				for (CommandDefinition child : definition.getChildren()) {
+					size += size(child);
+				}
+				sizes.put(definition, size);
+			}
+			return size;
+		}
+		
+	}
+	
+	private static class Body {
+		
+		private StringBuilder code = new StringBuilder();
+		private int count = 0;
+		
+	}
+	
+}
@@ -0,0 +1,232 @@
+package redempt.cmdmgr.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import redempt.cmdmgr.Command;
+
+/**
+ * Compiles listeners with the processor through javax.tools, checking the class it generates and the errors it
+ * reports for hooks which do not match the command file.
+ */
+public class CommandProcessorTest {
+	
+	private static final String FILE = String.join("\n",
+			"shop {",
+			"	buy string:item int:amount {",
+			"		hook buy",
+			"	}",
+			"	say multistring:message {",
+			"		hook say",
+			"	}",
+			"}",
+			"");
+	
+	private Path dir;
+	private DiagnosticCollector<JavaFileObject> diagnostics;
+	
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("cmdmgr-processor");
+		Files.createDirectories(dir.resolve("classes"));
+		Files.createDirectories(dir.resolve("generated"));
+		diagnostics = new DiagnosticCollector<>();
+	}
+	
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+	
+	@Test
+	public void generatesCommandsClass() throws Exception {
+		String listener = listener(
+				"	public final java.util.List<String> calls = new java.util.ArrayList<>();",
+				"	@CommandHook(\"buy\")",
+				"	public void buy(CommandSender sender, String item, int amount) {",
+				"		calls.add(item + \" x\" + amount);",
+				"	}",
+				"	@CommandHook(\"say\")",
+				"	public void say(CommandSender sender, String message) {",
+				"		calls.add(message);",
+				"	}");
+		assertTrue(compile(FILE, listener), diagnostics.getDiagnostics().toString());
+		assertEquals(0, count(Kind.WARNING), diagnostics.getDiagnostics().toString());
+		assertTrue(Files.isRegularFile(dir.resolve("generated/shop/ShopListenerCommands.java")));
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.resolve("classes").toUri().toURL()}, getClass().getClassLoader())) {
+			Object instance = loader.loadClass("shop.ShopListener").getConstructor().newInstance();
+			Class<?> generated = loader.loadClass("shop.ShopListenerCommands");
+			PrintStream out = System.out;
+			ByteArrayOutputStream printed = new ByteArrayOutputStream();
+			List<?> commands;
+			System.setOut(new PrintStream(printed, true, "UTF-8"));
+			try {
+				commands = (List<?>) generated.getMethod("create", instance.getClass()).invoke(null, instance);
+			} finally {
+				System.setOut(out);
+			}
+			assertEquals("", printed.toString("UTF-8"), "Generated code printed while creating commands");
+			assertEquals(1, commands.size());
+			Command command = (Command) commands.get(0);
+			assertEquals(Arrays.asList("shop"), Arrays.asList(command.getNames()));
+			List<String> messages = new ArrayList<>();
+			command.execute(sender(messages), new String[] {"buy", "apple", "3"});
+			command.execute(sender(messages), new String[] {"say", "hello", "there"});
+			assertEquals(Arrays.asList("apple x3", "hello there"), instance.getClass().getField("calls").get(instance));
+			assertEquals(new ArrayList<>(), messages);
+		}
+	}
+	
+	@Test
+	public void missingHookIsError() throws IOException {
+		String listener = listener(
+				"	@CommandHook(\"buy\")",
+				"	public void buy(CommandSender sender, String item, int amount) {",
+				"	}");
+		assertFalse(compile(FILE, listener));
+		List<String> errors = messages(Kind.ERROR);
+		assertEquals(1, errors.size(), errors.toString());
+		assertEquals("shop.txt line 5: no @CommandHook(\"say\") method in ShopListener", errors.get(0));
+		assertFalse(Files.exists(dir.resolve("generated/shop/ShopListenerCommands.java")));
+	}
+	
+	@Test
+	public void mismatchedHookIsError() throws IOException {
+		String listener = listener(
+				"	@CommandHook(\"buy\")",
+				"	public void buy(CommandSender sender, int amount, String item) {",
+				"	}",
+				"	@CommandHook(\"say\")",
+				"	public void say(CommandSender sender, String message) {",
+				"	}",
+				"	@CommandHook(\"unused\")",
+				"	public void unused(CommandSender sender) {",
+				"	}");
+		assertFalse(compile(FILE, listener));
+		List<Diagnostic<? extends JavaFileObject>> errors = diagnostics.getDiagnostics().stream().filter((d) -> d.getKind() == Kind.ERROR).collect(Collectors.toList());
+		assertEquals(1, errors.size(), errors.toString());
+		assertEquals("Parameters do not match the arguments of 'buy' (shop.txt line 2). Expected: CommandSender, string, int", errors.get(0).getMessage(Locale.ROOT));
+		// Reported on the hook method, which is on the second line of the listener's body
+		assertEquals(11, errors.get(0).getLineNumber());
+		assertFalse(Files.exists(dir.resolve("generated/shop/ShopListenerCommands.java")));
+	}
+	
+	@Test
+	public void unusedHookIsWarning() throws IOException {
+		String listener = listener(
+				"	@CommandHook(\"buy\")",
+				"	public void buy(CommandSender sender, String item, Integer amount) {",
+				"	}",
+				"	@CommandHook(\"say\")",
+				"	public void say(CommandSender sender, CharSequence message) {",
+				"	}",
+				"	@CommandHook(\"unused\")",
+				"	public void unused(CommandSender sender) {",
+				"	}");
+		assertTrue(compile(FILE, listener), diagnostics.getDiagnostics().toString());
+		assertEquals(Arrays.asList("@CommandHook(\"unused\") is not used by shop.txt"), messages(Kind.WARNING));
+	}
+	
+	private static String listener(String... body) {
+		List<String> lines = new ArrayList<>(Arrays.asList(
+				"package shop;",
+				"",
+				"import org.bukkit.command.CommandSender;",
+				"",
+				"import redempt.cmdmgr.CommandFile;",
+				"import redempt.cmdmgr.CommandHook;",
+				"",
+				"@CommandFile(\"shop.txt\")",
+				"public class ShopListener {"));
+		lines.addAll(Arrays.asList(body));
+		lines.add("}");
+		return String.join("\n", lines) + "\n";
+	}
+	
+	/**
+	 * Compiles the listener with the processor, finding the command file with the resources option.
+	 * @return Whether it compiled without errors
+	 */
+	private boolean compile(String file, String listener) throws IOException {
+		Files.write(dir.resolve("shop.txt"), file.getBytes(StandardCharsets.UTF_8));
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///shop/ShopListener.java"), JavaFileObject.Kind.SOURCE) {
+			
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return listener;
+			}
+			
+		};
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-processor", CommandProcessor.class.getName(),
+				"-A" + CommandProcessor.RESOURCES_OPTION + "=" + dir, "-d", dir.resolve("classes").toString(), "-s", dir.resolve("generated").toString());
+		return compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(source)).call();
+	}
+	
+	private List<String> messages(Kind kind) {
+		return diagnostics.getDiagnostics().stream().filter((d) -> d.getKind() == kind).map((d) -> d.getMessage(Locale.ROOT)).collect(Collectors.toList());
+	}
+	
+	private long count(Kind kind) {
+		return messages(kind).size();
+	}
+	
+	private static CommandSender sender(List<String> messages) {
+		return (CommandSender) Proxy.newProxyInstance(CommandProcessorTest.class.getClassLoader(), new Class<?>[] {CommandSender.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "sendMessage":
+					messages.add((String) args[0]);
+					return null;
+				case "hasPermission":
+				case "isOp":
+					return true;
+				case "getName":
+				case "toString":
+					return "CONSOLE";
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+}
@@ -0,0 +1,149 @@
+package redempt.cmdmgr;
+
+/**
+ * Number parsing for command arguments which reports bad input by returning null instead of throwing, so that
+ * malformed input does not cost an exception per argument.
+ */
+final class ArgumentParser {
+	
+	private ArgumentParser() {
+	}
+	
+	/**
+	 * Parses an int, accepting exactly what Integer#parseInt accepts.
+	 * @param string The String to parse
+	 * @return The parsed value, or null if the String is not a valid int
+	 */
+	static Integer parseInt(String string) {
+		int length = string.length();
+		if (length == 0) {
+			return null;
+		}
+		int i = 0;
+		boolean negative = false;
+		char first = string.charAt(0);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			if (length == 1) {
+				return null;
+			}
+			i++;
+		}
+		long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long result = 0;
+		for (; i < length; i++) {
+			int digit = Character.digit(string.charAt(i), 10);
+			if (digit < 0) {
+				return null;
+			}
+			result = result * 10 + digit;
+			if (result > limit) {
+				return null;
+			}
+		}
+		return (int) (negative ? -result : result);
+	}
+	
+	/**
+	 * Parses a double, accepting exactly what Double#parseDouble accepts. The String is validated first, so the
+	 * actual conversion can never throw.
+	 * @param string The String to parse
+	 * @return The parsed value, or null if the String is not a valid double
+	 */
+	static Double parseDouble(String string) {
+		return isDouble(string) ? Double.parseDouble(string) : null;
+	}
+	
+	private static boolean isDouble(String string) {
+		int start = 0;
+		int end = string.length();
+		while (start < end && string.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && string.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (start == end) {
+			return false;
+		}
+		int i = start;
+		if (string.charAt(i) == '+' || string.charAt(i) == '-') {
+			i++;
+		}
+		if (string.startsWith("NaN", i)) {
+			return i + 3 == end;
+		}
+		if (string.startsWith("Infinity", i)) {
+			return i + 8 == end;
+		}
+		if (end - i > 2 && string.charAt(i) == '0' && (string.charAt(i + 1) == 'x' || string.charAt(i + 1) == 'X')) {
+			return isHexDouble(string, i + 2, end);
+		}
+		int digits = 0;
+		while (i < end && isDigit(string.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < end && string.charAt(i) == '.') {
+			i++;
+			while (i < end && isDigit(string.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < end && (string.charAt(i) == 'e' || string.charAt(i) == 'E')) {
+			i = skipExponent(string, i + 1, end);
+			if (i < 0) {
+				return false;
+			}
+		}
+		return isSuffix(string, i, end);
+	}
+	
+	private static boolean isHexDouble(String string, int i, int end) {
+		int digits = 0;
+		while (i < end && Character.digit(string.charAt(i), 16) >= 0 && string.charAt(i) < 128) {
+			i++;
+			digits++;
+		}
+		if (i < end && string.charAt(i) == '.') {
+			i++;
+			while (i < end && Character.digit(string.charAt(i), 16) >= 0 && string.charAt(i) < 128) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0 || i == end || (string.charAt(i) != 'p' && string.charAt(i) != 'P')) {
+			return false;
+		}
+		i = skipExponent(string, i + 1, end);
+		return i >= 0 && isSuffix(string, i, end);
+	}
+	
+	private static int skipExponent(String string, int i, int end) {
+		if (i < end && (string.charAt(i) == '+' || string.charAt(i) == '-')) {
+			i++;
+		}
+		int start = i;
+		while (i < end && isDigit(string.charAt(i))) {
+			i++;
+		}
+		return i == start ? -1 : i;
+	}
+	
+	private static boolean isSuffix(String string, int i, int end) {
+		if (i == end) {
+			return true;
+		}
+		char c = string.charAt(i);
+		return i + 1 == end && (c == 'f' || c == 'F' || c == 'd' || c == 'D');
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+}
@@ -0,0 +1,78 @@
+package redempt.cmdmgr;
+
+/**
+ * A read-only view of the arguments from an offset onward, joined by spaces and trimmed, used for multistring
+ * arguments. Nothing is copied unless the text is actually turned into a String.
+ */
+final class ArgumentView implements CharSequence {
+	
+	private final String[] args;
+	private final int offset;
+	private final int start;
+	private final int end;
+	private String string = null;
+	
+	ArgumentView(String[] args, int offset) {
+		this.args = args;
+		this.offset = offset;
+		int length = 0;
+		for (int i = offset; i < args.length; i++) {
+			length += args[i].length() + 1;
+		}
+		int start = 0;
+		while (start < length && charAtJoined(start) <= ' ') {
+			start++;
+		}
+		int end = length;
+		while (end > start && charAtJoined(end - 1) <= ' ') {
+			end--;
+		}
+		this.start = start;
+		this.end = end;
+	}
+	
+	private char charAtJoined(int index) {
+		for (int i = offset; i < args.length; i++) {
+			int length = args[i].length();
+			if (index < length) {
+				return args[i].charAt(index);
+			}
+			if (index == length) {
+				return ' ';
+			}
+			index -= length + 1;
+		}
+		throw new IndexOutOfBoundsException();
+	}
+	
+	@Override
+	public int length() {
+		return end - start;
+	}
+	
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length());
+		}
+		return charAtJoined(start + index);
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+	
+	@Override
+	public String toString() {
+		if (string == null) {
+			StringBuilder builder = new StringBuilder(length());
+			for (int i = offset; i < args.length; i++) {
+				builder.append(args[i]).append(' ');
+			}
+			string = builder.substring(start, end);
+		}
+		return string;
+	}
+	
+}
@@ -0,0 +1,160 @@
+package redempt.cmdmgr;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Runs the hooks of commands marked async in the command file, and tab handlers with a deadline. At most a fixed
+ * number of these can be queued or running at once; past that, commands are refused and tab requests get the last
+ * completions rather than being queued without bound.
+ */
+public class AsyncCommands {
+	
+	private static volatile Executor executor = createDefaultExecutor();
+	private static volatile Semaphore pending = new Semaphore(256);
+	private static volatile Plugin plugin = null;
+	
+	private AsyncCommands() {
+	}
+	
+	private static Executor createDefaultExecutor() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger count = new AtomicInteger();
+			ExecutorService pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), (r) -> {
+				Thread thread = new Thread(r, "CmdMgr Async #" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			return pool;
+		}
+	}
+	
+	/**
+	 * Sets the executor async hooks run on. By default this uses virtual threads where the JVM supports them, and a small fixed thread pool otherwise.
+	 * @param executor The executor
+	 */
+	public static void setExecutor(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor cannot be null");
+		}
+		AsyncCommands.executor = executor;
+	}
+	
+	/**
+	 * @return The executor async hooks run on
+	 */
+	public static Executor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets how many async hooks and tab handlers with a deadline may be queued or running at once. When this many are in progress, further async commands are refused with a message to the sender. The default is 256.
+	 * @param max The maximum number of pending async hooks
+	 */
+	public static void setMaxPending(int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("Maximum pending must be at least 1");
+		}
+		pending = new Semaphore(max);
+	}
+	
+	/**
+	 * Sets the plugin used to schedule tasks back onto the server thread. CmdMgr sets this itself when it is installed as a plugin; call it if you shade CmdMgr into your own plugin.
+	 * @param plugin The plugin
+	 */
+	public static void setPlugin(Plugin plugin) {
+		AsyncCommands.plugin = plugin;
+	}
+	
+	/**
+	 * @return Whether a plugin has been set to schedule tasks with
+	 */
+	static boolean hasPlugin() {
+		return plugin != null;
+	}
+	
+	/**
+	 * @return The plugin used to schedule tasks back onto the server thread
+	 * @throws IllegalStateException If no plugin has been set
+	 */
+	static Plugin getPlugin() {
+		Plugin plugin = AsyncCommands.plugin;
+		if (plugin == null) {
+			throw new IllegalStateException("No plugin set to schedule tasks with, see AsyncCommands#setPlugin");
+		}
+		return plugin;
+	}
+	
+	/**
+	 * Runs a task on the server thread. If called from the server thread, the task is run immediately.
+	 * @param task The task to run
+	 */
+	public static void runSync(Runnable task) {
+		if (Bukkit.isPrimaryThread()) {
+			task.run();
+			return;
+		}
+		Bukkit.getScheduler().runTask(getPlugin(), task);
+	}
+	
+	/**
+	 * Runs a task on the server thread on the next tick.
+	 * @param task The task to run
+	 */
+	static void runLater(Runnable task) {
+		Bukkit.getScheduler().runTask(getPlugin(), task);
+	}
+	
+	/**
+	 * Computes a value on the server thread, for use from an async hook.
+	 * @param supplier Computes the value
+	 * @return A future completed with the value once it has been computed on the server thread
+	 */
+	public static <T> CompletableFuture<T> callSync(Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		runSync(() -> {
+			try {
+				future.complete(supplier.get());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Submits a task to the executor, unless the maximum number of pending tasks has been reached.
+	 * @param task The task to run
+	 * @return Whether the task was accepted
+	 */
+	static boolean submit(Runnable task) {
+		Semaphore pending = AsyncCommands.pending;
+		if (!pending.tryAcquire()) {
+			return false;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					pending.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			pending.release();
+			return false;
+		}
+		return true;
+	}
+	
+}
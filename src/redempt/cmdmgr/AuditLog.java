@@ -0,0 +1,323 @@
+package redempt.cmdmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+
+/**
+ * Writes a line to a file for every command run through CmdMgr, with the sender, the command, its arguments, how it
+ * went and how long it took. Nothing is written until {@link #start(Path)} is called.
+ * <p>
+ * Commands only copy their details into a fixed size ring buffer, which a background thread drains and writes to the
+ * file in batches, so auditing costs the server thread no I/O or locking. If the buffer is full, because commands are
+ * run faster than they can be written, further entries are dropped and counted rather than blocking the server.
+ * The file is rolled over to numbered backups once it reaches a maximum size. Async commands are recorded once their
+ * hook has run, with how it went and the time from the command being typed to the hook finishing.
+ */
+public class AuditLog {
+	
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int BATCH_SIZE = 1024;
+	
+	private static volatile Writer writer = null;
+	private static LongAdder dropped = new LongAdder();
+	private static LongAdder written = new LongAdder();
+	
+	private AuditLog() {
+	}
+	
+	/**
+	 * Starts auditing commands to a file, keeping up to 8192 pending entries and rolling the file over at 10MB with 5 backups.
+	 * @param file The file to write to. It is appended to if it already exists.
+	 * @throws IOException If the file could not be opened
+	 */
+	public static void start(Path file) throws IOException {
+		start(file, 8192, 10 * 1024 * 1024, 5);
+	}
+	
+	/**
+	 * Starts auditing commands to a file. If the audit log was already started, it is stopped first.
+	 * @param file The file to write to. It is appended to if it already exists.
+	 * @param capacity The most entries which can be waiting to be written, rounded up to a power of two
+	 * @param maxFileSize The size in bytes at which the file is rolled over
+	 * @param backups How many rolled over files to keep, as file.1 being the newest to file.backups being the oldest
+	 * @throws IOException If the file could not be opened
+	 */
+	public static synchronized void start(Path file, int capacity, long maxFileSize, int backups) throws IOException {
+		if (capacity < 1 || maxFileSize < 1 || backups < 0) {
+			throw new IllegalArgumentException("Capacity and maximum file size must be positive, and backups cannot be negative");
+		}
+		stop();
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		Writer started = new Writer(file, size, maxFileSize, backups);
+		started.thread.start();
+		writer = started;
+	}
+	
+	/**
+	 * Stops auditing commands. Entries already recorded are written before this returns.
+	 */
+	public static synchronized void stop() {
+		Writer stopped = writer;
+		if (stopped == null) {
+			return;
+		}
+		writer = null;
+		stopped.running = false;
+		LockSupport.unpark(stopped.thread);
+		try {
+			stopped.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return Whether commands are being audited
+	 */
+	public static boolean isEnabled() {
+		return writer != null;
+	}
+	
+	/**
+	 * @return The number of entries dropped because the buffer was full
+	 */
+	public static long getDropped() {
+		return dropped.sum();
+	}
+	
+	/**
+	 * @return The number of entries written to the file
+	 */
+	public static long getWritten() {
+		return written.sum();
+	}
+	
+	/**
+	 * Records a command run, if auditing is enabled. Only copies references, so it is cheap enough to call on every
+	 * command.
+	 * @param command The command which handled the line
+	 * @param args All of the arguments, of which the command's start at the offset
+	 */
+	static void record(CommandSender sender, Command command, String[] args, int offset, Command.CommandResult result, long nanos) {
+		Writer writer = AuditLog.writer;
+		if (writer == null) {
+			return;
+		}
+		String id = sender instanceof Entity ? ((Entity) sender).getUniqueId().toString() : null;
+		if (!writer.offer(System.currentTimeMillis(), sender.getName(), id, command, args, offset, result, nanos)) {
+			dropped.increment();
+		}
+	}
+	
+	/**
+	 * One entry in the ring buffer. The sequence says whose turn it is: when it equals a position, a command may
+	 * claim the slot for that position, and when it is one past it, the writer may read it.
+	 */
+	private static class Slot {
+		
+		private volatile long sequence;
+		private long time;
+		private String sender;
+		private String id;
+		private Command command;
+		private String[] args;
+		private int offset;
+		private Command.CommandResult result;
+		private long nanos;
+		
+		private Slot(long sequence) {
+			this.sequence = sequence;
+		}
+		
+	}
+	
+	/**
+	 * A ring buffer which any thread can add to without locking and one thread drains, and the thread which drains it.
+	 */
+	private static class Writer implements Runnable {
+		
+		private Slot[] slots;
+		private int mask;
+		private AtomicLong tail = new AtomicLong();
+		private long head = 0;
+		private Path file;
+		private long maxFileSize;
+		private int backups;
+		private FileChannel channel;
+		private long size;
+		private boolean rollFailed = false;
+		private volatile boolean running = true;
+		private Thread thread;
+		
+		private Writer(Path file, int capacity, long maxFileSize, int backups) throws IOException {
+			slots = new Slot[capacity];
+			for (int i = 0; i < capacity; i++) {
+				slots[i] = new Slot(i);
+			}
+			mask = capacity - 1;
+			this.file = file;
+			this.maxFileSize = maxFileSize;
+			this.backups = backups;
+			open();
+			thread = new Thread(this, "CmdMgr Audit Writer");
+			thread.setDaemon(true);
+		}
+		
+		private boolean offer(long time, String sender, String id, Command command, String[] args, int offset, Command.CommandResult result, long nanos) {
+			while (true) {
+				long position = tail.get();
+				Slot slot = slots[(int) position & mask];
+				long difference = slot.sequence - position;
+				if (difference < 0) {
+					return false;
+				}
+				if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+					slot.time = time;
+					slot.sender = sender;
+					slot.id = id;
+					slot.command = command;
+					slot.args = args;
+					slot.offset = offset;
+					slot.result = result;
+					slot.nanos = nanos;
+					slot.sequence = position + 1;
+					if ((position & (mask >> 1)) == 0) {
+						// Wake the writer early when commands come in faster than it would otherwise drain them
+						LockSupport.unpark(thread);
+					}
+					return true;
+				}
+			}
+		}
+		
+		@Override
+		public void run() {
+			StringBuilder builder = new StringBuilder();
+			while (true) {
+				boolean running = this.running;
+				int count = drain(builder);
+				try {
+					if (count > 0) {
+						write(builder);
+						written.add(count);
+					}
+				} catch (IOException e) {
+					System.out.println("Could not write to audit log " + file + ", " + count + " entries were lost");
+					e.printStackTrace();
+				}
+				builder.setLength(0);
+				if (count == BATCH_SIZE) {
+					continue;
+				}
+				if (!running) {
+					break;
+				}
+				LockSupport.parkNanos(IDLE_WAIT);
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/**
+		 * Formats up to a batch of entries.
+		 * @return The number of entries formatted
+		 */
+		private int drain(StringBuilder builder) {
+			int count = 0;
+			while (count < BATCH_SIZE) {
+				Slot slot = slots[(int) head & mask];
+				if (slot.sequence != head + 1) {
+					break;
+				}
+				builder.append(Instant.ofEpochMilli(slot.time)).append(' ').append(slot.sender);
+				if (slot.id != null) {
+					builder.append(" (").append(slot.id).append(')');
+				}
+				builder.append(" /");
+				slot.command.appendAudit(builder, slot.args, slot.offset);
+				long hundredths = slot.nanos / 10000;
+				builder.append(' ').append(slot.result).append(' ').append(hundredths / 100).append(hundredths % 100 < 10 ? ".0" : ".").append(hundredths % 100).append("ms\n");
+				slot.sender = null;
+				slot.id = null;
+				slot.command = null;
+				slot.args = null;
+				slot.result = null;
+				slot.sequence = head + slots.length;
+				head++;
+				count++;
+			}
+			return count;
+		}
+		
+		private void write(StringBuilder builder) throws IOException {
+			ByteBuffer buffer = StandardCharsets.UTF_8.encode(builder.toString());
+			if (size > 0 && size + buffer.remaining() > maxFileSize) {
+				try {
+					roll();
+					rollFailed = false;
+				} catch (IOException e) {
+					// Entries keep going to the current file, and it is rolled over with the next batch if it can be by then
+					if (!rollFailed) {
+						rollFailed = true;
+						System.out.println("Could not roll over audit log " + file + ", writing to it until it can be");
+						e.printStackTrace();
+					}
+				}
+			}
+			if (!channel.isOpen()) {
+				open();
+			}
+			while (buffer.hasRemaining()) {
+				size += channel.write(buffer);
+			}
+		}
+		
+		private void open() throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			size = channel.size();
+		}
+		
+		/**
+		 * Moves the file to file.1, shifting older backups up by one and deleting the oldest, and starts a new file.
+		 */
+		private void roll() throws IOException {
+			channel.close();
+			if (backups == 0) {
+				Files.delete(file);
+			} else {
+				String name = file.getFileName().toString();
+				Files.deleteIfExists(file.resolveSibling(name + "." + backups));
+				for (int i = backups - 1; i >= 1; i--) {
+					Path backup = file.resolveSibling(name + "." + i);
+					if (Files.exists(backup)) {
+						Files.move(backup, file.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				Files.move(file, file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+			}
+			open();
+		}
+		
+	}
+	
+}
@@ -1,21 +1,32 @@
 package redempt.cmdmgr;
 
 import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -25,33 +36,77 @@ import org.bukkit.entity.Player;
 
 public class Command {
 	
+	private static final MethodHandle TO_STRING;
+	private static final Children NO_CHILDREN = new Children(new Command[0], 0);
+	private static final Dispatch NO_DISPATCH = new Dispatch(Collections.emptyMap(), new Route[0], new IndexEntry[0], 0);
+	private static SimpleCommandMap commandMap = null;
+	private static AtomicInteger stamps = new AtomicInteger();
+	private static List<Command> registered = new CopyOnWriteArrayList<>();
+	private static volatile ExpiringCache<Object, TabSession> tabSessions = new ExpiringCache<>(10, TimeUnit.SECONDS, 1024);
+	
+	static {
+		try {
+			TO_STRING = MethodHandles.publicLookup().findVirtual(Object.class, "toString", MethodType.methodType(String.class)).asType(MethodType.methodType(Object.class, Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
 	private String[] names;
 	private String permission;
 	private String help;
-	private String users;
+	private Users users;
 	private CommandArgument[] args;
-	private List<Command> children = new ArrayList<>();
-	private Method hook;
+	private volatile Children children = NO_CHILDREN;
+	private CommandInvoker hook;
 	private String hookName;
 	private String tempName = null;
 	private Object listener = null;
-	private Map<String, TypeProvider<?>> providers = new HashMap<>();
+	private volatile Map<String, TypeProvider<?>> providers = null;
 	private boolean hideSub;
-	private int lineNum = 0;
+	private boolean async = false;
+	private volatile Dispatch dispatch = null;
+	private volatile int modCount = 0;
+	private volatile int providerStamp = 0;
+	private volatile int treeVersion = 0;
+	private Command parent = null;
+	private String helpLine = null;
+	private volatile HelpCache helpCache = null;
+	private volatile FuzzyIndex<Command> suggestionIndex = null;
+	private int helpPageSize = -1;
+	private volatile Metrics metrics = null;
+	private RateLimiter[] limits = null;
+	private String bypass = null;
+	private String remote = null;
+	private int permissionId;
+	private Registration registration = null;
 	
-	private Command(String[] names, String permission, String help, String users, String hook, boolean hideSub, CommandArgument... args) {
+	private Command(String[] names, String permission, String help, Users users, String hook, boolean hideSub, CommandArgument... args) {
 		this.hideSub = hideSub;
-		this.names = names;
-		this.permission = permission;
-		this.help = help;
+		this.names = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			this.names[i] = names[i].intern();
+		}
+		this.permission = intern(permission);
+		if (permission != null) {
+			permissionId = PermissionCache.getId(permission);
+		}
+		this.help = intern(help);
 		this.users = users;
 		this.args = args;
-		hookName = hook;
+		hookName = intern(hook);
 		if (hideSub && help == null) {
 			this.help = "Subcommands hidden";
 		}
 	}
 	
+	/**
+	 * Shares the strings which generated command trees repeat on many nodes, like permissions, hook names and types.
+	 */
+	private static String intern(String string) {
+		return string == null ? null : string.intern();
+	}
+	
 	private void setTempName(String name) {
 		tempName = name;
 	}
@@ -59,10 +114,12 @@ public class Command {
 	/**
 	 * Gets the children (subcommands) of this command.
 	 * Intended for internal use. I don't see why you'd need to use it, but I guess someone might need to sometime.
-	 * @return The list of children.
+	 * @return The children at the time this was called, which cannot be modified. Use {@link #addChild(Command)} and
+	 * {@link #removeChild(Command)} to change them.
 	 */
 	public List<Command> getChildren() {
-		return children;
+		Children children = this.children;
+		return Collections.unmodifiableList(Arrays.asList(children.array).subList(0, children.size));
 	}
 	
 	public CommandArgument[] getArguments() {
@@ -74,11 +131,179 @@ public class Command {
 	}
 	
 	/**
-	 * Adds a subcommand to a command. Intended for internal use, but go ahead and use it if you want to add children at runtime. Note that children added after the command is registered will not have access to the type providers the command does.
+	 * Adds a subcommand to a command. Intended for internal use, but go ahead and use it if you want to add children at runtime.
+	 * Children use the type providers registered on any of their parents, including ones added after registration.
 	 * @param command The child command to be added.
 	 */
 	public void addChild(Command command) {
-		children.add(command);
+		addChildren(Collections.singletonList(command));
+	}
+	
+	/**
+	 * Adds several subcommands to a command at once, such as thousands generated at runtime. The dispatch table and
+	 * help are rebuilt the next time they are needed rather than for every child. Children are kept in an array with
+	 * room to grow, so adding children one at a time only copies the array now and then, and the dispatch table is
+	 * updated in place when only a few are added.
+	 * @param commands The child commands to be added, in order
+	 */
+	public synchronized void addChildren(Collection<Command> commands) {
+		if (commands.isEmpty()) {
+			return;
+		}
+		Children children = this.children;
+		int size = children.size + commands.size();
+		Command[] array = children.array;
+		if (size > array.length) {
+			array = Arrays.copyOf(array, Math.max(size, children.size + (children.size >> 1)));
+		}
+		// Slots past the current size are not read until the new size is published below
+		int i = children.size;
+		for (Command command : commands) {
+			if (Arrays.asList(command.names).contains("_")) {
+				command.setTempName(names[0]);
+			}
+			command.parent = this;
+			command.providersChanged();
+			array[i++] = command;
+		}
+		this.children = new Children(array, size);
+		Dispatch updated = updateDispatch(commands, true);
+		childrenChanged();
+		if (updated != null) {
+			updated.modCount = modCount;
+		}
+	}
+	
+	/**
+	 * Removes a subcommand from a command at runtime. Commands already running on it finish normally.
+	 * @param command The child command to be removed
+	 * @return Whether the command was a child of this one
+	 */
+	public boolean removeChild(Command command) {
+		return removeChildren(Collections.singletonList(command)) != 0;
+	}
+	
+	/**
+	 * Removes several subcommands from a command at once, copying the children only once.
+	 * @param commands The child commands to be removed
+	 * @return The number of commands which were removed
+	 */
+	public synchronized int removeChildren(Collection<Command> commands) {
+		Set<Command> removed = commands.size() > 8 ? new HashSet<>(commands) : null;
+		Children children = this.children;
+		Command[] kept = new Command[children.size];
+		List<Command> gone = new ArrayList<>();
+		int count = 0;
+		for (int i = 0; i < children.size; i++) {
+			Command child = children.array[i];
+			if (removed == null ? commands.contains(child) : removed.contains(child)) {
+				child.parent = null;
+				child.providersChanged();
+				gone.add(child);
+			} else {
+				kept[count++] = child;
+			}
+		}
+		if (count == children.size) {
+			return 0;
+		}
+		// Always a new array, as commands still running may be reading the old one
+		this.children = count == 0 ? NO_CHILDREN : new Children(Arrays.copyOf(kept, count), count);
+		Dispatch updated = count == 0 ? null : updateDispatch(gone, false);
+		childrenChanged();
+		if (updated != null) {
+			updated.modCount = modCount;
+		}
+		return children.size - count;
+	}
+	
+	/**
+	 * Updates the dispatch table in place after a few children were added at the end or removed, so that adding
+	 * children one at a time with commands run in between does not rebuild the table for every child. Overloads are
+	 * merged into the routes of every alias, so if any of the children are overloads, or many children changed at
+	 * once, or the table was already out of date, it is left to be rebuilt the next time it is needed. Only called
+	 * while holding the lock on this command, after the children were published.
+	 * @param changed The children which were added or removed
+	 * @param added Whether the children were added rather than removed
+	 * @return The updated table, to be marked up to date once the children are counted as changed, or null
+	 */
+	private Dispatch updateDispatch(Collection<Command> changed, boolean added) {
+		Dispatch dispatch = this.dispatch;
+		if (dispatch == null || dispatch.modCount != modCount || changed.size() > 8) {
+			return null;
+		}
+		for (Command command : changed) {
+			if (Arrays.asList(command.names).contains("_")) {
+				return null;
+			}
+		}
+		Map<String, Route[]> routes = dispatch.routes;
+		for (Command command : changed) {
+			for (int i = 0; i < command.names.length; i++) {
+				String name = command.names[i];
+				Route[] old = routes.get(name);
+				if (added) {
+					// A new alias is tried after every overload, as all of them come before this child
+					Route[] list = old == null ? dispatch.overloads : old;
+					Route[] updated = Arrays.copyOf(list, list.length + 1);
+					updated[list.length] = new Route(command, 1);
+					routes.put(name, updated);
+					dispatch.added.add(new IndexEntry(command, name, i == 0));
+				} else if (old != null) {
+					List<Route> kept = new ArrayList<>(old.length);
+					boolean named = false;
+					for (Route route : old) {
+						if (route.command != command) {
+							kept.add(route);
+							named |= route.skip != 0;
+						}
+					}
+					if (named) {
+						routes.put(name, kept.toArray(new Route[0]));
+					} else {
+						routes.remove(name);
+					}
+				}
+			}
+			if (!added) {
+				dispatch.remove(command);
+			}
+		}
+		dispatch.stale = !dispatch.added.isEmpty() || dispatch.removed * 2 > dispatch.index.length;
+		return dispatch;
+	}
+	
+	/**
+	 * Marks the dispatch table and help of this command as out of date after its children changed. Only called while
+	 * holding the lock on this command.
+	 */
+	private void childrenChanged() {
+		modCount++;
+		invalidateHelp();
+		treeChanged();
+	}
+	
+	/**
+	 * Makes this command and the commands below it look up their type providers again, after they were moved to or
+	 * from a parent or a provider was registered on them. Commands elsewhere in the tree keep theirs.
+	 */
+	private void providersChanged() {
+		providerStamp = stamps.incrementAndGet();
+		Children children = this.children;
+		for (int i = 0; i < children.size; i++) {
+			children.array[i].providersChanged();
+		}
+	}
+	
+	/**
+	 * Ends the tab completion sessions of the top-level command above this one, whose completions may have changed.
+	 */
+	private void treeChanged() {
+		Command root = this;
+		while (root.parent != null) {
+			root = root.parent;
+		}
+		root.treeVersion = stamps.incrementAndGet();
 	}
 	
 	/**
@@ -87,61 +312,302 @@ public class Command {
 	 * @param listener The listener object containing annotated command listener methods
 	 */
 	public void register(String prefix, Object listener) {
-		registerListener(listener);
-		try {
-			Field field = Bukkit.getServer().getClass().getDeclaredField("commandMap");
-			field.setAccessible(true);
-			SimpleCommandMap map = (SimpleCommandMap) field.get(Bukkit.getServer());
-			for (String name : names) {
-				org.bukkit.command.Command cmd = new org.bukkit.command.Command(name, help != null ? help : "No help provided (CmdMgr)",  "", new ArrayList<String>()) {
-
-					@Override
-					public boolean execute(CommandSender sender, String label, String[] args) {
-						Command.this.execute(sender, args);
-						return false;
-					}
-					
-					@Override
-					public List<String> tabComplete(CommandSender sender, String label, String[] args) {
-						return Command.this.tabComplete(sender, args);
-					}
-					
-				};
-				cmd.setPermission(null);
-				map.register(prefix, cmd);
+		bindListener(listener);
+		register(prefix);
+	}
+	
+	/**
+	 * Registers this command with the hooks already bound by {@link #bindHooks(Object, Map)}. Register type providers before doing this.
+	 * @param prefix The prefix at the beginning of the command /prefix:cmdname
+	 */
+	public void register(String prefix) {
+		registerCommands(prefix, Arrays.asList(this));
+	}
+	
+	/**
+	 * Registers several commands which share a listener at once. The listener's hooks are only looked up once, and
+	 * the time taken is printed. Register type providers before doing this.
+	 * @param prefix The prefix at the beginning of the command /prefix:cmdname
+	 * @param listener The listener object containing annotated command listener methods
+	 * @param commands The commands to register, such as those returned by {@link #fromStreamMulti(InputStream)}
+	 */
+	public static void registerAll(String prefix, Object listener, List<Command> commands) {
+		long start = System.nanoTime();
+		Map<String, Method> hooks = indexHooks(listener);
+		for (Command command : commands) {
+			command.registerListener(listener, hooks);
+		}
+		registerCommands(prefix, commands);
+		System.out.println("Registered " + commands.size() + " commands in " + String.format("%.2f", (System.nanoTime() - start) / 1e6) + "ms");
+	}
+	
+	/**
+	 * Binds the hooks of a listener to this command and its children without registering it with the server. Use
+	 * with {@link #execute(CommandSender, String[])} to run commands in tests or benchmarks.
+	 * @param listener The listener object containing annotated command listener methods
+	 */
+	public void bindListener(Object listener) {
+		registerListener(listener, indexHooks(listener));
+	}
+	
+	/**
+	 * Runs this command as if the sender had typed it, without it needing to be registered with the server.
+	 * @param sender The sender running the command
+	 * @param args The arguments after the command name
+	 */
+	public void execute(CommandSender sender, String[] args) {
+		dispatch(sender, args, new Context(false));
+	}
+	
+	/**
+	 * Gets the tab completions for this command as if the sender were typing it, without it needing to be
+	 * registered with the server.
+	 * @param sender The sender typing the command
+	 * @param args The arguments after the command name, the last one being the one to complete
+	 * @return The completions, or null if there are none
+	 */
+	public List<String> tabComplete(CommandSender sender, String[] args) {
+		return completeTab(sender, args);
+	}
+	
+	/**
+	 * Runs many command lines for a sender in order, as if they had been typed in the console, and reports how each
+	 * one went instead of relying on chat messages. Only commands registered through CmdMgr can be run. Each line is
+	 * dispatched the same way as if it were run on its own, skipping only the server's command map, so running lines
+	 * in a batch is no faster than running them one by one through {@link #execute(CommandSender, String[])}.
+	 * @param sender The sender running the commands
+	 * @param lines The command lines, with or without a leading slash
+	 * @param quiet Whether to leave out the messages CmdMgr would send to the sender, like help and permission
+	 * errors. Messages sent by the hooks themselves are still sent.
+	 * @return The result of each line, in the same order as the lines
+	 */
+	public static List<CommandResult> executeBatch(CommandSender sender, List<String> lines, boolean quiet) {
+		Batch batch = new Batch(sender, lines, quiet);
+		batch.run(lines.size());
+		return batch.results;
+	}
+	
+	/**
+	 * Runs many command lines for a sender in order as in {@link #executeBatch(CommandSender, List, boolean)}, but
+	 * spreads them across ticks so a large batch does not stall the server. The first lines are run on the server
+	 * thread right away, or on the next tick if this is called from another thread. Requires the plugin set with
+	 * {@link AsyncCommands#setPlugin(org.bukkit.plugin.Plugin)}.
+	 * @param sender The sender running the commands
+	 * @param lines The command lines, with or without a leading slash
+	 * @param quiet Whether to leave out the messages CmdMgr would send to the sender
+	 * @param linesPerTick The most lines to run in one tick
+	 * @return A future completed with the result of each line once all of them have run
+	 */
+	public static CompletableFuture<List<CommandResult>> executeBatch(CommandSender sender, List<String> lines, boolean quiet, int linesPerTick) {
+		if (linesPerTick < 1) {
+			throw new IllegalArgumentException("Lines per tick must be at least 1");
+		}
+		if (!AsyncCommands.hasPlugin()) {
+			throw new IllegalStateException("Spreading a batch across ticks needs a plugin to schedule with, see AsyncCommands#setPlugin");
+		}
+		Batch batch = new Batch(sender, new ArrayList<>(lines), quiet);
+		CompletableFuture<List<CommandResult>> future = new CompletableFuture<>();
+		AsyncCommands.runSync(() -> batch.runTicks(future, linesPerTick));
+		return future;
+	}
+	
+	/**
+	 * Sets how long a sender's tab completion session is kept after their last tab request. While a sender keeps
+	 * typing the same argument, their completions are narrowed from the previous ones instead of being looked up
+	 * again. The default is 10 seconds.
+	 * @param time How long to keep sessions, or 0 to keep them until they are replaced or evicted
+	 * @param unit The unit of the time
+	 * @param maxSessions The most senders to keep sessions for
+	 */
+	public static void setTabSessionExpiry(long time, TimeUnit unit, int maxSessions) {
+		tabSessions = new ExpiringCache<>(time, unit, maxSessions);
+	}
+	
+	/**
+	 * Forgets the tab completion session of a sender, such as when their permissions change.
+	 */
+	static void invalidateTabSession(CommandSender sender) {
+		tabSessions.invalidate(Senders.key(sender));
+	}
+	
+	/**
+	 * Forgets the tab completion sessions of all senders.
+	 */
+	static void invalidateTabSessions() {
+		tabSessions.invalidateAll();
+	}
+	
+	/**
+	 * Reloads this command from a command file without registering it again. The command with the same name is read
+	 * from the stream and takes this one's place as described in {@link #replace(Command)}, keeping this command's
+	 * listener. Each command in the new tree also keeps the type providers, help page size, metrics and hooks bound
+	 * without a listener of the command at the same path in this one, and the uses senders have made of its cooldown
+	 * and rate limit if those did not change.
+	 * @param stream The InputStream to read from
+	 * @return The new command, which should be used in place of this one from now on
+	 * @throws CommandParseException If the command file is malformed or does not define this command
+	 * @throws IOException If the stream could not be read
+	 */
+	public Command reload(InputStream stream) throws IOException {
+		Command replacement = null;
+		for (Command command : fromStreamMulti(stream)) {
+			if (command.names[0].equals(names[0])) {
+				replacement = command;
+				break;
 			}
-		} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
-			e.printStackTrace();
 		}
+		if (replacement == null) {
+			throw new CommandParseException("No command named '" + names[0] + "' is defined", 1, 1);
+		}
+		replacement.carryOver(this);
+		replacement.providersChanged();
+		if (listener != null) {
+			replacement.bindListener(listener);
+		}
+		replace(replacement);
+		return replacement;
+	}
+	
+	/**
+	 * Copies what a command file does not define from the command at the same path in an old tree to this one and its
+	 * children. Children are matched by their first name, and overloads by their order among those of the same name.
+	 */
+	private void carryOver(Command old) {
+		Map<String, TypeProvider<?>> providers = old.providers;
+		if (providers != null) {
+			this.providers = new ConcurrentHashMap<>(providers);
+		}
+		helpPageSize = old.helpPageSize;
+		metrics = old.metrics;
+		if (hook == null && Objects.equals(hookName, old.hookName)) {
+			hook = old.hook;
+		}
+		for (int i = 0; limits != null && old.limits != null && i < limits.length; i++) {
+			for (RateLimiter limit : old.limits) {
+				if (limit.hasSameRate(limits[i])) {
+					limits[i] = limit;
+					break;
+				}
+			}
+		}
+		List<Command> oldChildren = old.getChildren();
+		Map<String, Integer> seen = new HashMap<>();
+		for (Command child : getChildren()) {
+			int occurrence = seen.merge(child.names[0], 1, Integer::sum);
+			for (Command candidate : oldChildren) {
+				if (candidate.names[0].equals(child.names[0]) && --occurrence == 0) {
+					child.carryOver(candidate);
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Replaces this registered command with another, such as one created again from generated code. The replacement
+	 * is fully built first and then swapped in at once, so every sender sees either the old command or the new one,
+	 * and commands which are already running finish on the old one. Aliases are registered with the server, so
+	 * aliases which were added or removed only take effect after a restart.
+	 * @param replacement The command to run in place of this one, with its hooks and type providers already set up
+	 */
+	public void replace(Command replacement) {
+		if (registration == null) {
+			throw new IllegalStateException("Command '" + names[0] + "' has not been registered");
+		}
+		if (!Arrays.equals(names, replacement.names)) {
+			System.out.println("Aliases of command '" + names[0] + "' changed, restart the server to apply this");
+		}
+		replacement.compile();
+		replacement.registration = registration;
+		int index = registered.indexOf(this);
+		if (index != -1) {
+			registered.set(index, replacement);
+		}
+		registration.root = replacement;
 	}
 	
-	private static String[] removeFirst(String[] args) {
-		String[] newArgs = new String[args.length - 1];
-		for (int i = 1; i < args.length; i++) {
-			newArgs[i - 1] = args[i];
+	private static void registerCommands(String prefix, List<Command> commands) {
+		SimpleCommandMap map = getCommandMap();
+		if (map == null) {
+			return;
 		}
-		return newArgs;
+		List<org.bukkit.command.Command> wrappers = new ArrayList<>();
+		List<Command> added = new ArrayList<>();
+		for (Command command : commands) {
+			command.compile();
+			if (command.registration == null) {
+				command.registration = new Registration(command);
+				added.add(command);
+			}
+			for (String name : command.names) {
+				wrappers.add(command.createWrapper(name));
+			}
+		}
+		// Added at once, as the list is copied on every change, and without searching it for commands registered before
+		registered.addAll(added);
+		map.registerAll(prefix, wrappers);
+	}
+	
+	/**
+	 * Sets the command map commands are registered with, in place of the one found on the server. Use this on servers
+	 * whose command map cannot be found, or to register commands in tests and benchmarks.
+	 * @param map The command map
+	 */
+	public static void setCommandMap(SimpleCommandMap map) {
+		commandMap = map;
+	}
+	
+	private static SimpleCommandMap getCommandMap() {
+		if (commandMap == null) {
+			try {
+				Field field = Bukkit.getServer().getClass().getDeclaredField("commandMap");
+				field.setAccessible(true);
+				commandMap = (SimpleCommandMap) field.get(Bukkit.getServer());
+			} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
+				e.printStackTrace();
+			}
+		}
+		return commandMap;
+	}
+	
+	private org.bukkit.command.Command createWrapper(String name) {
+		Registration registration = this.registration;
+		org.bukkit.command.Command cmd = new org.bukkit.command.Command(name, help != null ? help : "No help provided (CmdMgr)",  "", new ArrayList<String>()) {
+			
+			@Override
+			public boolean execute(CommandSender sender, String label, String[] args) {
+				registration.root.dispatch(sender, args, new Context(false));
+				return false;
+			}
+			
+			@Override
+			public List<String> tabComplete(CommandSender sender, String label, String[] args) {
+				return registration.root.completeTab(sender, args);
+			}
+			
+		};
+		cmd.setPermission(null);
+		return cmd;
 	}
 	
-	private static Object[] getArguments(Command command, String[] args, CommandArgument[] types) {
-		if (args.length != types.length && !(types.length != 0 && args.length > types.length && types[types.length - 1].getType() == CommandArgumentType.MULTISTRING)) {
+	private static boolean countMatches(int count, CommandArgument[] types) {
+		return count == types.length || (types.length != 0 && count > types.length && types[types.length - 1].getType() == CommandArgumentType.MULTISTRING);
+	}
+	
+	private static Object[] getArguments(Command command, String[] args, int offset, CommandArgument[] types, Context context) {
+		int count = args.length - offset;
+		if (!countMatches(count, types)) {
 			return null;
 		}
-		Object[] value = new Object[args.length];
-		for (int i = 0; i < args.length; i++) {
-			Object obj = getType(command, args[i], types[i]);
+		Object[] value = new Object[count];
+		for (int i = 0; i < count; i++) {
 			if (types[i].getType() == CommandArgumentType.MULTISTRING) {
 				Object[] newValue = new Object[i + 1];
-				for (int x = 0; x < newValue.length; x++) {
-					newValue[x] = value[x];
-				}
-				String combine = "";
-				for (int x = i; x < args.length; x++) {
-					combine += args[x] + " ";
-				}
-				newValue[i] = combine.trim();
+				System.arraycopy(value, 0, newValue, 0, i);
+				newValue[i] = new ArgumentView(args, offset + i);
 				return newValue;
 			}
+			Object obj = getType(command, args[offset + i], types[i], context);
 			if (obj == null) {
 				return null;
 			}
@@ -150,6 +616,79 @@ public class Command {
 		return value;
 	}
 	
+	/**
+	 * Builds the dispatch tables for this command and all of its children ahead of first use.
+	 */
+	private void compile() {
+		getDispatch();
+		Children children = this.children;
+		for (int i = 0; i < children.size; i++) {
+			children.array[i].compile();
+		}
+		if (parent == null) {
+			getSuggestionIndex();
+		}
+	}
+	
+	/**
+	 * Gets the dispatch table for this command, building it if the children have changed. Each alias maps to the
+	 * children that could handle it, in the order {@link #execute(CommandSender, String[], int, Context)} used to try them,
+	 * with the _ overloads merged in at their original positions, and the sorted index of child names used for tab
+	 * completion. Once built, a table is kept up to date in place by {@link #updateDispatch(Collection, boolean)} as
+	 * a few children at a time are added or removed. Commands without children all share one empty table.
+	 */
+	private Dispatch getDispatch() {
+		Dispatch dispatch = this.dispatch;
+		int modCount = this.modCount;
+		if (dispatch != null && dispatch.modCount == modCount) {
+			return dispatch;
+		}
+		List<Command> children = getChildren();
+		if (children.isEmpty()) {
+			return NO_DISPATCH;
+		}
+		Map<String, List<Route>> aliases = new HashMap<>();
+		List<Route> overloads = new ArrayList<>();
+		for (Command child : children) {
+			for (String name : child.names) {
+				if (name.equals("_")) {
+					Route route = new Route(child, 0);
+					overloads.add(route);
+					for (List<Route> list : aliases.values()) {
+						list.add(route);
+					}
+					continue;
+				}
+				List<Route> list = aliases.get(name);
+				if (list == null) {
+					list = new ArrayList<>(overloads);
+					aliases.put(name, list);
+				}
+				list.add(new Route(child, 1));
+			}
+		}
+		List<IndexEntry> index = new ArrayList<>();
+		for (Command child : children) {
+			for (int i = 0; i < child.names.length; i++) {
+				index.add(new IndexEntry(child, child.names[i], i == 0 && child.tempName == null));
+			}
+		}
+		index.sort((a, b) -> a.key.compareTo(b.key));
+		Map<String, Route[]> routes = new ConcurrentHashMap<>();
+		for (Map.Entry<String, List<Route>> entry : aliases.entrySet()) {
+			routes.put(entry.getKey(), entry.getValue().toArray(new Route[0]));
+		}
+		dispatch = new Dispatch(routes, overloads.toArray(new Route[0]), index.toArray(new IndexEntry[0]), modCount);
+		this.dispatch = dispatch;
+		return dispatch;
+	}
+	
+	private Route[] getRoutes(String name) {
+		Dispatch dispatch = getDispatch();
+		Route[] found = dispatch.routes.get(name);
+		return found == null ? dispatch.overloads : found;
+	}
+	
 	/**
 	 * Get the help message for this command.
 	 * @return The help message
@@ -199,398 +738,1423 @@ public class Command {
 	}
 	
 	private void showHelp(CommandSender sender) {
-		String message = ChatColor.GREEN + "--" + ChatColor.YELLOW + "[ Help for " + getPrimaryName() + " ]" + ChatColor.GREEN + "--\n";
-		message += getHelpRecursive("", sender, true);
-		sender.sendMessage(message);
-	}
-	
-	private boolean isAllowed(CommandSender sender) {
-		return permission == null || sender.hasPermission(permission);
+		showHelp(sender, 1);
 	}
 	
-	private String getHelpRecursive(String prefix, CommandSender sender, boolean ignoreHidden) {
-		for (Command child : children) {
-			for (String name : child.getNames()) {
-				if (name.equals("_")) {
-					child.setTempName(names[0]);
-				}
-			}
+	/**
+	 * Shows the help page for this command to a sender. Only the entries the sender has permission for are shown.
+	 * @param sender The sender to show help to
+	 * @param page The page to show, if a help page size is set
+	 */
+	public void showHelp(CommandSender sender, int page) {
+		String message = ChatColor.GREEN + "--" + ChatColor.YELLOW + "[ Help for " + getPrimaryName() + " ]" + ChatColor.GREEN + "--";
+		String help = renderHelp(sender);
+		int pageSize = getHelpPageSize();
+		if (pageSize <= 0) {
+			sender.sendMessage(message + "\n" + help);
+			return;
 		}
-		String help = "";
-		if (this.help != null && isAllowed(sender) && !(ignoreHidden && hideSub)) {
-			if (tempName != null) {
-				help = ChatColor.YELLOW + prefix + getFullArgs() + ChatColor.GREEN + ": " + this.help + "\n";
-			} else {
-				help = ChatColor.YELLOW + prefix + getFullName() + ChatColor.GREEN + ": " + this.help + "\n";
-			}
+		String[] lines = help.split("\n", -1);
+		int pages = Math.max(1, (lines.length + pageSize - 1) / pageSize);
+		page = Math.max(1, Math.min(page, pages));
+		StringBuilder builder = new StringBuilder(message);
+		if (pages > 1) {
+			builder.append(ChatColor.YELLOW).append(" (").append(page).append("/").append(pages).append(")");
 		}
-		if (hideSub && !ignoreHidden) {
-			return help;
+		for (int i = (page - 1) * pageSize; i < Math.min(lines.length, page * pageSize); i++) {
+			builder.append('\n').append(lines[i]);
 		}
-		for (Command child : children) {
-			if (child.getNames()[0].equals("_")) {
-				child.setTempName(names[0]);
-			}
-			help += child.getHelpRecursive(prefix + getAliases() + " ", sender, false) + "\n";
+		if (page < pages) {
+			builder.append('\n').append(ChatColor.GREEN).append("Use /").append(getPath()).append(" help ").append(page + 1).append(" to see the next page");
 		}
-		return help.replaceAll("\n$", "");
+		sender.sendMessage(builder.toString());
 	}
 	
-	private List<String> tabComplete(CommandSender sender, String[] args) {
-		if (tempName != null) {
-			return null;
-		}
-		for (Command child : children) {
-			if (child.getNames()[0].equals("_")) {
-				child.setTempName(names[0]);
-			}
-		}
-		if (!isAllowed(sender)) {
-			return null;
-		}
-		switch (users) {
-			case "everyone":
-				break;
-			case "console":
-				if (sender instanceof Player) {
-					return null;
-				}
-				break;
-			case "player":
-				if (!(sender instanceof Player)) {
-					return null;
-				}
-				break;
-		}
-		List<String> completions = new CopyOnWriteArrayList<>();
-		if (this.args.length >= args.length) {
-			CommandArgument arg = this.args[args.length - 1];
-			if (arg.getType() == CommandArgumentType.CUSTOM) {
-				completions.addAll(arg.getProvider(Command.this).complete(args[args.length - 1].toLowerCase().trim(), sender));
+	/**
+	 * Splits the help for this command and its children into pages of the given number of lines. Applies to all
+	 * subcommands which do not set their own page size. Pages are requested with /command help [page].
+	 * @param lines The number of lines per page, or 0 to always show the whole help
+	 */
+	public void setHelpPageSize(int lines) {
+		helpPageSize = lines;
+	}
+	
+	private int getHelpPageSize() {
+		for (Command command = this; command != null; command = command.parent) {
+			if (command.helpPageSize >= 0) {
+				return command.helpPageSize;
 			}
 		}
-		String finalArg = args[args.length - 1].toLowerCase().trim();
-		if (args.length == 1) {
-			for (Command command : children) {
-				if (command.tempName == null) {
-					completions.add(command.getPrimaryName());
-				}
-				if (!args[args.length - 1].equals("")) {
-					Arrays.stream(command.getNames()).filter((s) -> s.toLowerCase().startsWith(finalArg) && !(command.getPrimaryName().toLowerCase().startsWith(finalArg) && !command.getPrimaryName().equals(finalArg)) && !completions.contains(s)).forEach(completions::add);
-				}
-			}
-			completions.stream().filter((s) -> s == null || !s.toLowerCase().startsWith(finalArg)).forEach(completions::remove);
-			if (hasName(finalArg)) {
-				Arrays.stream(names).forEach(completions::add);
+		return 0;
+	}
+	
+	private String getPath() {
+		String path = getPrimaryName();
+		for (Command command = parent; command != null; command = command.parent) {
+			if (command.tempName == null) {
+				path = command.getPrimaryName() + " " + path;
 			}
 		}
-		if (completions.size() > 0) {
-			return completions;
+		return path;
+	}
+	
+	/**
+	 * @return The path to this command from the root, followed by the names of its arguments
+	 */
+	private String getUsage() {
+		String usage = tempName == null || parent == null ? getPath() : parent.getPath();
+		for (CommandArgument arg : args) {
+			usage += " <" + (arg.getName().equals("_") ? arg.getTypeName() : arg.getName()) + ">";
 		}
-		for (Command command : children) {
-			if (command.tempName == null && command.hasName(args[0].toLowerCase().trim())) {
-				return command.tabComplete(sender, removeFirst(args));
+		return usage;
+	}
+	
+	/**
+	 * Describes a run of this command for the audit log, as its path followed by its arguments. If the number of
+	 * arguments fits this command they are given with their names, and otherwise they are given as typed.
+	 * @param args All of the arguments, of which this command's start at the offset
+	 */
+	void appendAudit(StringBuilder builder, String[] args, int offset) {
+		builder.append(tempName == null || parent == null ? getPath() : parent.getPath());
+		int count = args.length - offset;
+		if (!countMatches(count, this.args)) {
+			for (int i = offset; i < args.length; i++) {
+				builder.append(' ').append(args[i]);
 			}
-			if (command.tempName != null) {
-				return command.tabComplete(sender, args);
+			return;
+		}
+		for (int i = 0; i < this.args.length && i < count; i++) {
+			builder.append(' ').append(this.args[i].getName()).append('=');
+			if (this.args[i].getType() == CommandArgumentType.MULTISTRING) {
+				builder.append(String.join(" ", Arrays.copyOfRange(args, offset + i, args.length)));
+			} else {
+				builder.append(args[offset + i]);
 			}
 		}
-		return null;
 	}
 	
-	private boolean hasName(String name) {
-		for (String alias : names) {
-			if (alias.equals(name)) {
-				return true;
+	/**
+	 * Gets the metrics for this command, such as how often its hook is run and how long it takes.
+	 * @return The metrics
+	 */
+	public Metrics getMetrics() {
+		Metrics metrics = this.metrics;
+		if (metrics == null) {
+			// Created on first use, as most commands in a large tree are never run
+			synchronized (this) {
+				if (this.metrics == null) {
+					this.metrics = new Metrics();
+				}
+				metrics = this.metrics;
 			}
 		}
-		return false;
+		return metrics;
 	}
 	
-	private boolean execute(CommandSender sender, String[] args) {
-		if (!isAllowed(sender)) {
-			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command. " + "(Node: " + permission + ")");
+	/**
+	 * Takes a snapshot of the metrics of this command and all of its children which have hooks.
+	 * @return The snapshots, named by the command path and its arguments
+	 */
+	public List<Metrics.Snapshot> snapshotMetrics() {
+		List<Metrics.Snapshot> snapshots = new ArrayList<>();
+		snapshotMetrics(snapshots);
+		return snapshots;
+	}
+	
+	private void snapshotMetrics(List<Metrics.Snapshot> snapshots) {
+		if (hookName != null) {
+			Metrics metrics = this.metrics;
+			snapshots.add((metrics == null ? new Metrics() : metrics).snapshot(getUsage()));
+		}
+		for (Command child : getChildren()) {
+			child.snapshotMetrics(snapshots);
+		}
+	}
+	
+	/**
+	 * @return The commands which have been registered with the server, in the order they were registered
+	 */
+	public static List<Command> getRegisteredCommands() {
+		return Collections.unmodifiableList(registered);
+	}
+	
+	private boolean isAllowed(CommandSender sender) {
+		return permission == null || PermissionCache.hasPermission(sender, permissionId, permission);
+	}
+	
+	/**
+	 * @return Whether a sender has permission for this command and is the kind of sender it is for
+	 */
+	boolean isUsableBy(CommandSender sender) {
+		if (!isAllowed(sender)) {
+			return false;
+		}
+		switch (users) {
+			case CONSOLE:
+				return !(sender instanceof Player);
+			case PLAYER:
+				return sender instanceof Player;
+			default:
+				return true;
+		}
+	}
+	
+	/**
+	 * @return Whether running this command with all of its arguments calls a hook rather than showing help
+	 */
+	boolean isRunnable() {
+		return hookName != null;
+	}
+	
+	/**
+	 * Gets the help text for a sender. The text depends only on which of the permissions in the subtree the sender
+	 * has, so it is built once for each combination and cached.
+	 */
+	private String renderHelp(CommandSender sender) {
+		HelpCache cache = helpCache;
+		if (cache == null) {
+			Map<String, Integer> permissions = new HashMap<>();
+			collectHelpPermissions(permissions, true);
+			cache = new HelpCache(permissions);
+			helpCache = cache;
+		}
+		BitSet granted = new BitSet();
+		for (int i = 0; i < cache.names.length; i++) {
+			if (PermissionCache.hasPermission(sender, cache.ids[i], cache.names[i])) {
+				granted.set(i);
+			}
+		}
+		Map<String, Integer> permissions = cache.permissions;
+		return cache.rendered.get(granted, (k) -> {
+			StringBuilder builder = new StringBuilder();
+			appendHelp(builder, "", (p) -> p == null || k.get(permissions.get(p)), true);
+			return builder.toString();
+		});
+	}
+	
+	private void collectHelpPermissions(Map<String, Integer> permissions, boolean ignoreHidden) {
+		if (permission != null && !permissions.containsKey(permission)) {
+			permissions.put(permission, permissions.size());
+		}
+		if (hideSub && !ignoreHidden) {
+			return;
+		}
+		for (Command child : getChildren()) {
+			child.collectHelpPermissions(permissions, false);
+		}
+	}
+	
+	private void appendHelp(StringBuilder builder, String prefix, Predicate<String> allowed, boolean ignoreHidden) {
+		int start = builder.length();
+		if (this.help != null && allowed.test(permission) && !(ignoreHidden && hideSub)) {
+			if (helpLine == null) {
+				helpLine = (tempName != null ? getFullArgs() : getFullName()) + ChatColor.GREEN + ": " + this.help;
+			}
+			builder.append(ChatColor.YELLOW).append(prefix).append(helpLine).append('\n');
+		}
+		if (hideSub && !ignoreHidden) {
+			return;
+		}
+		String childPrefix = prefix + getAliases() + " ";
+		for (Command child : getChildren()) {
+			child.appendHelp(builder, childPrefix, allowed, false);
+			builder.append('\n');
+		}
+		// Matches the trailing newlines removed by replaceAll("\n$", "") on this command's part of the text
+		for (int i = 0; i < 2 && builder.length() > start && builder.charAt(builder.length() - 1) == '\n'; i++) {
+			builder.setLength(builder.length() - 1);
+		}
+	}
+	
+	/**
+	 * Gets the index of the paths of this command's subcommands, built when the command is registered and again after
+	 * children are added. Every alias of a subcommand is indexed under its parent's path, so each is indexed once
+	 * rather than once per combination of aliases. Subcommands taking an argument before their name and subcommands
+	 * hidden from help are left out.
+	 */
+	private FuzzyIndex<Command> getSuggestionIndex() {
+		FuzzyIndex<Command> index = suggestionIndex;
+		if (index == null) {
+			index = new FuzzyIndex<>();
+			indexPaths(index, getPrimaryName());
+			suggestionIndex = index;
+		}
+		return index;
+	}
+	
+	private void indexPaths(FuzzyIndex<Command> index, String path) {
+		if (hideSub) {
+			return;
+		}
+		for (Command child : getChildren()) {
+			if (child.tempName != null) {
+				continue;
+			}
+			for (String name : child.names) {
+				index.add(path + " " + name, child);
+			}
+			child.indexPaths(index, path + " " + child.getPrimaryName());
+		}
+	}
+	
+	/**
+	 * Finds the commands closest to what a sender typed after this command, so that a mistyped subcommand gets a few
+	 * suggestions instead of the whole help page. The first one and two arguments are each looked up, so that a typo
+	 * in either of the next two names can be found. Only commands the sender may use are suggested.
+	 * @return The message listing the suggestions, or null if the help page should be shown instead
+	 */
+	private String getSuggestions(CommandSender sender, String[] args, int offset) {
+		Command root = this;
+		while (root.parent != null) {
+			root = root.parent;
+		}
+		FuzzyIndex<Command> index = root.getSuggestionIndex();
+		List<Command> found = new ArrayList<>();
+		String query = getPath();
+		String typed = "";
+		for (int i = offset; i < Math.min(args.length, offset + 2); i++) {
+			query += " " + args[i];
+			typed += " " + args[i];
+			int tolerance = Math.max(1, Math.min(3, typed.length() / 3));
+			for (Command command : index.search(query, tolerance)) {
+				if (found.size() < 3 && !found.contains(command) && command.isAllowedBelow(this, sender)) {
+					found.add(command);
+				}
+			}
+		}
+		if (found.isEmpty() && getDispatch().overloads.length != 0) {
+			// The arguments may have been meant for an overload, whose usage is in the help page
+			return null;
+		}
+		StringBuilder builder = new StringBuilder().append(ChatColor.RED).append(found.isEmpty() ? "Unknown command." : "Unknown command. Did you mean:");
+		for (Command command : found) {
+			builder.append('\n').append(ChatColor.YELLOW).append('/').append(command.getUsage());
+			if (command.help != null) {
+				builder.append(ChatColor.GREEN).append(": ").append(command.help);
+			}
+		}
+		builder.append('\n').append(ChatColor.GREEN).append("Use /").append(getPath()).append(" help to see all commands");
+		return builder.toString();
+	}
+	
+	/**
+	 * Checks whether a word typed after this command can only have been meant as the name of a subcommand, and is not
+	 * one. Words after commands taking arguments, and words naming a subcommand which then failed, get the help page.
+	 */
+	private boolean isUnknownSubcommand(String word) {
+		Dispatch dispatch = getDispatch();
+		return args.length == 0 && !dispatch.routes.isEmpty() && !dispatch.routes.containsKey(word);
+	}
+	
+	/**
+	 * Checks whether a sender may use this command and every command between it and an ancestor.
+	 */
+	private boolean isAllowedBelow(Command ancestor, CommandSender sender) {
+		for (Command command = this; command != null && command != ancestor; command = command.parent) {
+			if (!command.isAllowed(sender)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void invalidateHelp() {
+		for (Command command = this; command != null; command = command.parent) {
+			command.helpCache = null;
+			command.suggestionIndex = null;
+		}
+	}
+	
+	/**
+	 * Gets tab completions from the top of this command, reusing the sender's session if they only typed further
+	 * into the same argument since their last tab request. In that case the command completing the argument is the
+	 * same, and the completions are a subset of the previous ones, so they are filtered from the previous ones
+	 * without walking the tree, checking permissions or asking type providers again. Sessions are forgotten when
+	 * a command or type provider in this command's tree changes.
+	 */
+	private List<String> completeTab(CommandSender sender, String[] args) {
+		if (args.length == 0) {
+			return tabComplete(sender, args, 0, null);
+		}
+		Object key = Senders.key(sender);
+		String prefix = args[args.length - 1].toLowerCase().trim();
+		int version = treeVersion;
+		TabSession session = tabSessions.get(key);
+		if (session != null && session.continues(this, args, prefix, version)) {
+			TabSession next = new TabSession(this, args, prefix, version);
+			List<String> completions = session.command.narrow(args, session, next);
+			if (completions != null) {
+				tabSessions.put(key, next);
+				return completions;
+			}
+		}
+		session = new TabSession(this, args, prefix, version);
+		List<String> completions = tabComplete(sender, args, 0, session);
+		tabSessions.put(key, session);
+		return completions;
+	}
+	
+	/**
+	 * Filters the completions of the previous tab request in a session down to those for a longer prefix.
+	 * @param previous The session of the previous request, which was completed by this command
+	 * @param next The session of this request, which is filled in the same way as by a full lookup
+	 * @return The completions, or null if there are none, in which case they must be looked up again
+	 */
+	private List<String> narrow(String[] args, TabSession previous, TabSession next) {
+		long start = Metrics.start();
+		List<String> completions = new ArrayList<>();
+		if (previous.provided != null) {
+			List<String> provided = new ArrayList<>();
+			for (String completion : previous.provided) {
+				if (completion != null && completion.toLowerCase().startsWith(next.prefix)) {
+					provided.add(completion);
+				}
+			}
+			next.provided = provided;
+			completions.addAll(provided);
+		}
+		if (args.length - previous.offset == 1) {
+			String last = args[args.length - 1];
+			completeChildren(completions, next.prefix, !last.equals(""));
+			if (hasName(next.prefix)) {
+				completions.addAll(Arrays.asList(names));
+			}
+		}
+		if (completions.isEmpty()) {
+			return null;
+		}
+		next.command = this;
+		next.offset = previous.offset;
+		getMetrics().recordCompletion(start);
+		return completions;
+	}
+	
+	/**
+	 * @param session The session to record the command which completed the argument in, or null
+	 */
+	private List<String> tabComplete(CommandSender sender, String[] args, int offset, TabSession session) {
+		if (tempName != null || args.length == offset) {
+			return null;
+		}
+		if (!isUsableBy(sender)) {
+			return null;
+		}
+		int count = args.length - offset;
+		String last = args[args.length - 1];
+		String finalArg = last.toLowerCase().trim();
+		long start = Metrics.start();
+		List<String> completions = new ArrayList<>();
+		List<String> provided = null;
+		boolean truncated = false;
+		if (this.args.length >= count) {
+			CommandArgument arg = this.args[count - 1];
+			if (arg.getType() == CommandArgumentType.CUSTOM) {
+				TypeProvider<?> provider = arg.getProvider(Command.this);
+				provided = provider.complete(finalArg, sender);
+				truncated = provided.size() >= provider.getTabLimit();
+				if (session != null && provider.hasTabDeadline()) {
+					// Completions which missed their deadline may be stale or missing, so they are not reused
+					session.uncached = true;
+				}
+				completions.addAll(provided);
+			}
+		}
+		if (count == 1) {
+			completeChildren(completions, finalArg, !last.equals(""));
+			if (hasName(finalArg)) {
+				completions.addAll(Arrays.asList(names));
+			}
+		}
+		if (completions.size() > 0) {
+			if (session != null && truncated) {
+				// Completions cut off by a tab limit cannot be narrowed, as the ones left out may match a longer prefix
+				session.uncached = true;
+			} else if (session != null) {
+				session.command = this;
+				session.offset = offset;
+				session.provided = provided;
+			}
+			getMetrics().recordCompletion(start);
+			return completions;
+		}
+		Route[] routes = getRoutes(args[offset].toLowerCase().trim());
+		if (routes.length == 0 || routes[0].skip == 0) {
+			return null;
+		}
+		return routes[0].command.tabComplete(sender, args, offset + 1, session);
+	}
+	
+	/**
+	 * Adds the names of the children which start with the given prefix, using binary search over the sorted index.
+	 * An alias is only suggested when the primary name of its command is not already suggested, or when the prefix
+	 * is exactly the primary name.
+	 */
+	private void completeChildren(List<String> completions, String prefix, boolean showAliases) {
+		IndexEntry[] index = getIndex();
+		for (int i = find(index, prefix); i < index.length && index[i].key.startsWith(prefix); i++) {
+			IndexEntry entry = index[i];
+			if (entry.removed) {
+				continue;
+			}
+			if (entry.primary) {
+				completions.add(entry.name);
+				continue;
+			}
+			String primary = entry.command.getPrimaryName();
+			if (showAliases && !(primary.toLowerCase().startsWith(prefix) && !primary.equals(prefix)) && !completions.contains(entry.name)) {
+				completions.add(entry.name);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the sorted index of child names, first sorting in the names of children added since it was last read.
+	 */
+	private IndexEntry[] getIndex() {
+		Dispatch dispatch = getDispatch();
+		if (dispatch.stale) {
+			synchronized (this) {
+				dispatch.sort();
+			}
+		}
+		return dispatch.index;
+	}
+	
+	/**
+	 * @return The position of the first entry in the index whose key is not less than the given key
+	 */
+	private static int find(IndexEntry[] index, String key) {
+		int low = 0;
+		int high = index.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (index[mid].key.compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	private boolean hasName(String name) {
+		for (String alias : names) {
+			if (alias.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Runs this command from the top, recording it in the {@link AuditLog} if that is enabled.
+	 * @return How running the command went
+	 */
+	private CommandResult dispatch(CommandSender sender, String[] args, Context context) {
+		long start = AuditLog.isEnabled() ? System.nanoTime() : 0;
+		context.start = start;
+		execute(sender, args, 0, context);
+		CommandResult result = context.result == null ? CommandResult.PARSE_ERROR : context.result;
+		if (start != 0 && !context.deferred) {
+			AuditLog.record(sender, context.command, args, context.offset, result, System.nanoTime() - start);
+		}
+		return result;
+	}
+	
+	private boolean execute(CommandSender sender, String[] args, int offset, Context context) {
+		context.command = this;
+		context.offset = offset;
+		if (!isAllowed(sender)) {
+			context.reply(sender, CommandResult.PERMISSION_DENIED, ChatColor.RED + "You do not have permission to execute that command. " + "(Node: " + permission + ")");
 			return false;
 		}
 		switch (users) {
-			case "everyone":
+			case EVERYONE:
 				break;
-			case "console":
+			case CONSOLE:
 				if (sender instanceof Player) {
-					sender.sendMessage(ChatColor.RED + "This command can only be executed by console!");
+					context.reply(sender, CommandResult.WRONG_SENDER, ChatColor.RED + "This command can only be executed by console!");
 					return false;
 				}
 				break;
-			case "player":
+			case PLAYER:
 				if (!(sender instanceof Player)) {
-					sender.sendMessage(ChatColor.RED + "This command can only be exeucted by a player!");
+					context.reply(sender, CommandResult.WRONG_SENDER, ChatColor.RED + "This command can only be exeucted by a player!");
 					return false;
 				}
 				break;
 		}
-		Object[] values = getArguments(this, args, this.args);
-		if (values == null || (args.length == 0 && hook == null)) {
-			if (args.length == 0) {
-				showHelp(sender);
+		// Limits are taken before the arguments are converted, so spamming a command does not reach its type providers
+		boolean limited = limits != null && countMatches(args.length - offset, this.args) && (args.length != offset || hook != null);
+		if (limited && !checkLimits(sender, context)) {
+			return true;
+		}
+		Object[] values = getArguments(this, args, offset, this.args, context);
+		if (values == null || (args.length == offset && hook == null)) {
+			if (limited) {
+				// The arguments did not fit, so this command's hook does not run
+				releaseLimits(sender);
+			}
+			if (args.length == offset) {
+				context.showHelp(this, sender, 1, hook == null ? CommandResult.HELP : CommandResult.PARSE_ERROR);
 			} else {
-				for (Command child : children) {
-					for (String name : child.getNames()) {
-						if (name.equals("_")) {
-							child.setTempName(names[0]);
-							if (!child.execute(sender, args)) {
-								continue;
-							}
-							return true;
-						}
-						if (name.equals(args[0])) {
-							if (child.execute(sender, removeFirst(args))) {
-								return true;
-							}
-						}
+				for (Route route : getRoutes(args[offset])) {
+					if (route.command.execute(sender, args, offset + route.skip, context)) {
+						return true;
 					}
 				}
+				context.command = this;
+				context.offset = offset;
 				if (tempName != null) {
 					return false;
 				}
-				showHelp(sender);
+				int page = 1;
+				CommandResult result = CommandResult.HELP;
+				if (args[offset].equalsIgnoreCase("help") && args.length - offset <= 2) {
+					Integer requested = args.length - offset == 2 ? ArgumentParser.parseInt(args[offset + 1]) : null;
+					page = requested == null ? 1 : requested;
+				} else {
+					getMetrics().recordInvalid();
+					result = CommandResult.PARSE_ERROR;
+					String suggestions = isUnknownSubcommand(args[offset]) ? getSuggestions(sender, args, offset) : null;
+					if (suggestions != null) {
+						context.showHelp(this, sender, suggestions, result);
+						return true;
+					}
+				}
+				context.showHelp(this, sender, page, result);
 			}
 			return true;
 		}
-		Object[] newArgs = new Object[values.length + 1];
-		newArgs[0] = sender;
-		for (int i = 0; i < values.length; i++) {
-			newArgs[i + 1] = values[i];
+		if (remote != null && !RemoteCommands.isLocal(remote)) {
+			forward(sender, Arrays.copyOfRange(args, offset, args.length), context.quiet);
+			context.result = CommandResult.FORWARDED;
+			return true;
 		}
-		try {
-			hook.invoke(listener, newArgs);
-		} catch (IllegalArgumentException e) {
-			System.out.println("Could not invoke method hook '" + hookName + "', invalid arguments for method. The arguments should be CommandSender followed by all other argument types.");
-			String expectedTypes = "CommandSender, ";
-			String argumentTypes = "";
-			for (Object o : newArgs) {
-				if (o.equals(newArgs[0])) {
-					continue;
+		if (async) {
+			boolean quiet = context.quiet;
+			long start = context.start;
+			if (AsyncCommands.submit(() -> {
+				boolean success = invoke(sender, values, quiet);
+				if (start != 0) {
+					AuditLog.record(sender, this, args, offset, success ? CommandResult.SUCCESS : CommandResult.ERROR, System.nanoTime() - start);
 				}
-				expectedTypes += o.getClass().getSimpleName() + ", ";
+			})) {
+				context.result = CommandResult.SUCCESS;
+				// The task records the command once the hook has run, with how it went and how long it waited to run
+				context.deferred = true;
+			} else {
+				releaseLimits(sender);
+				context.reply(sender, CommandResult.BUSY, ChatColor.RED + "The server is too busy to run this command right now, please try again shortly.");
 			}
-			expectedTypes = expectedTypes.replaceAll(", $", "");
-			for (Parameter param : hook.getParameters()) {
-				argumentTypes += param.getType().getSimpleName() + ", ";
+			return true;
+		}
+		context.result = invoke(sender, values, context.quiet) ? CommandResult.SUCCESS : CommandResult.ERROR;
+		return true;
+	}
+	
+	/**
+	 * Sends this command to the server named in its remote directive, and passes on the messages its hook sends there.
+	 * @param args The arguments of this command, as typed
+	 */
+	private void forward(CommandSender sender, String[] args, boolean quiet) {
+		List<Integer> indexes = new ArrayList<>();
+		Command root = this;
+		for (; root.parent != null; root = root.parent) {
+			indexes.add(0, root.parent.getChildren().indexOf(root));
+		}
+		int[] path = new int[indexes.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = indexes.get(i);
+		}
+		List<String> permissions = new ArrayList<>();
+		for (Command command = this; command != null; command = command.parent) {
+			if (command.permission != null && command.isAllowed(sender)) {
+				permissions.add(command.permission);
 			}
-			argumentTypes = argumentTypes.replaceAll(", $", "");
-			System.out.println("Expected types: " + expectedTypes);
-			System.out.println("Found types: " + argumentTypes);
-			sender.sendMessage(ChatColor.RED + "An error occurred in executing this command, please check console.");
-		} catch (IllegalAccessException | InvocationTargetException | NullPointerException e) {
-			System.out.println("Could not invoke method hook '" + hookName + "', the method either does not exist, is not public, the listener is null, or the method errored.");
-			sender.sendMessage(ChatColor.RED + "An error occurred in executing this command, please check console.");
-			e.printStackTrace();
+		}
+		RemoteCommands.forward(remote, root.names[0], path, hookName, sender, permissions, args).whenComplete((result, error) -> AsyncCommands.runSync(() -> {
+			if (error != null) {
+				System.out.println("Could not forward command '/" + getUsage() + "' to server '" + remote + "'");
+				error.printStackTrace();
+			} else {
+				for (String message : result.getMessages()) {
+					sender.sendMessage(message);
+				}
+			}
+			// A command refused on the other server says why itself
+			if ((error != null || (result.getResult() != CommandResult.SUCCESS && result.getMessages().length == 0)) && !quiet) {
+				sender.sendMessage(ChatColor.RED + "An error occurred in executing this command, please check console.");
+			}
+		}));
+	}
+	
+	/**
+	 * Runs a command forwarded from another server on the server thread. The command must be marked remote with the
+	 * name of the receiving server, and permissions are checked again against the sender, which only has the permissions the
+	 * other server found the original sender to have. Limits were taken on the other server and are not taken again.
+	 * @param server The name of the receiving server
+	 * @param rootName The primary name of the top-level command
+	 * @param path The index of each command in its parent's children, from the top-level command down
+	 * @param hookName The name of the hook the other server expects the command to have, to catch differing command files
+	 * @param args The arguments of the command, as typed
+	 * @return A future completed with how running the command went
+	 */
+	static CompletableFuture<CommandResult> runRemote(String server, String rootName, int[] path, String hookName, CommandSender sender, String[] args) {
+		CompletableFuture<CommandResult> future = new CompletableFuture<>();
+		Command command = null;
+		for (Command root : registered) {
+			if (root.names[0].equals(rootName)) {
+				command = root;
+				break;
+			}
+		}
+		for (int i = 0; i < path.length && command != null; i++) {
+			Children children = command.children;
+			command = path[i] < children.size ? children.array[path[i]] : null;
+		}
+		if (command == null || !Objects.equals(command.hookName, hookName)) {
+			System.out.println("Received a command from another server which does not exist here, make sure both servers use the same command file");
+			future.complete(CommandResult.UNKNOWN_COMMAND);
+			return future;
+		}
+		if (command.remote == null || !command.remote.equals(server)) {
+			System.out.println("Refused a command from another server, '/" + command.getUsage() + "' is not marked to run on this server");
+			future.complete(CommandResult.UNKNOWN_COMMAND);
+			return future;
+		}
+		if (!command.isAllowedBelow(null, sender)) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command.");
+			future.complete(CommandResult.PERMISSION_DENIED);
+			return future;
+		}
+		Command target = command;
+		long start = System.nanoTime();
+		future.thenAccept((result) -> AuditLog.record(sender, target, args, 0, result, System.nanoTime() - start));
+		AsyncCommands.runSync(() -> {
+			Object[] values = getArguments(target, args, 0, target.args, new Context(true));
+			if (values == null) {
+				future.complete(CommandResult.PARSE_ERROR);
+			} else if (!target.async) {
+				future.complete(target.invoke(sender, values, true) ? CommandResult.SUCCESS : CommandResult.ERROR);
+			} else if (!AsyncCommands.submit(() -> future.complete(target.invoke(sender, values, true) ? CommandResult.SUCCESS : CommandResult.ERROR))) {
+				future.complete(CommandResult.BUSY);
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Takes a use from each of this command's cooldowns and rate limits, unless the sender can bypass them.
+	 * @return Whether the sender may use the command
+	 */
+	private boolean checkLimits(CommandSender sender, Context context) {
+		if (bypass != null && PermissionCache.hasPermission(sender, PermissionCache.getId(bypass), bypass)) {
 			return true;
 		}
+		Object key = Senders.key(sender);
+		for (int i = 0; i < limits.length; i++) {
+			long wait = limits[i].acquire(key);
+			if (wait > 0) {
+				// The uses taken from the limits before this one are given back, as the command does not run
+				for (int j = 0; j < i; j++) {
+					limits[j].release(key);
+				}
+				context.reply(sender, CommandResult.RATE_LIMITED, ChatColor.RED + "You must wait " + String.format("%.1f", Math.max(wait / 1e9, 0.1)) + " seconds before using this command again.");
+				return false;
+			}
+		}
 		return true;
 	}
 	
-	private static Object getType(Command command, String arg, CommandArgument type) {
+	/**
+	 * Gives back the uses taken by {@link #checkLimits(CommandSender, Context)} when the hook could not be run after
+	 * all, because the arguments did not fit or the command was refused.
+	 */
+	private void releaseLimits(CommandSender sender) {
+		if (limits == null || (bypass != null && PermissionCache.hasPermission(sender, PermissionCache.getId(bypass), bypass))) {
+			return;
+		}
+		Object key = Senders.key(sender);
+		for (RateLimiter limit : limits) {
+			limit.release(key);
+		}
+	}
+	
+	/**
+	 * @return Whether the hook ran without errors
+	 */
+	private boolean invoke(CommandSender sender, Object[] values, boolean quiet) {
+		String failure = ChatColor.RED + "An error occurred in executing this command, please check console.";
+		if (hook == null) {
+			System.out.println("Could not invoke method hook '" + hookName + "', the method either does not exist or the listener is null.");
+			if (!quiet) {
+				sender.sendMessage(failure);
+			}
+			return false;
+		}
+		long start = Metrics.start();
+		boolean error = true;
+		try {
+			hook.invoke(sender, values);
+			error = false;
+		} catch (ClassCastException e) {
+			System.out.println("Could not invoke method hook '" + hookName + "', the sender or a type provider's value does not match the method's parameters.");
+			String expectedTypes = sender.getClass().getSimpleName();
+			for (Object o : values) {
+				expectedTypes += ", " + o.getClass().getSimpleName();
+			}
+			System.out.println("Expected types: " + expectedTypes);
+			e.printStackTrace();
+		} catch (Throwable e) {
+			System.out.println("Could not invoke method hook '" + hookName + "', the method errored.");
+			e.printStackTrace();
+		} finally {
+			long nanos = getMetrics().recordCall(start, error);
+			if (Metrics.isSlow(nanos)) {
+				System.out.println("Command '/" + getUsage() + "' took " + String.format("%.2f", nanos / 1e6) + "ms to run (hook '" + hookName + "')");
+			}
+		}
+		if (error && !quiet) {
+			sender.sendMessage(failure);
+		}
+		return !error;
+	}
+	
+	private static Object getType(Command command, String arg, CommandArgument type, Context context) {
 		switch (type.getType()) {
 			case INT:
-				try {
-					return Integer.parseInt(arg);
-				} catch (NumberFormatException e) {
-					return null;
-				}
+				return ArgumentParser.parseInt(arg);
 			case DOUBLE:
-				try {
-					return Double.parseDouble(arg);
-				} catch (NumberFormatException e) {
-					return null;
-				}
+				return ArgumentParser.parseDouble(arg);
 			case STRING:
 				return arg;
 			case MULTISTRING:
 				return arg;
 			case CUSTOM:
-				Object o = type.getProvider(command).get(arg);
-				return o;
+				return context.convert(type.getProvider(command), arg);
 			default:
 				return null;
 		}
 	}
 	
-	private void registerListener(Object listener) {
+	/**
+	 * Binds hooks to this command and its children by hook name, without looking for annotated methods. Used by
+	 * code generated from {@link CommandFile}; the hooks are not checked against the arguments here.
+	 * @param listener The listener the hooks call into
+	 * @param hooks The hooks, mapped by the name used in the command file
+	 */
+	public void bindHooks(Object listener, Map<String, CommandInvoker> hooks) {
 		this.listener = listener;
+		if (hookName != null) {
+			hook = hooks.get(hookName);
+		}
+		for (Command command : getChildren()) {
+			command.bindHooks(listener, hooks);
+		}
+	}
+	
+	/**
+	 * Maps the hook names of a listener's non-static {@link CommandHook} methods to the methods. If several methods
+	 * use the same name, the first one declared is used.
+	 */
+	private static Map<String, Method> indexHooks(Object listener) {
+		Map<String, Method> hooks = new HashMap<>();
 		for (Method method : listener.getClass().getDeclaredMethods()) {
-			if (method.isAnnotationPresent(CommandHook.class)) {
-				CommandHook hook = method.getAnnotation(CommandHook.class);
-				if (hook.value().equals(hookName) && !Modifier.isStatic(method.getModifiers())) {
-					this.hook = method;
-					break;
-				}
+			CommandHook hook = method.getAnnotation(CommandHook.class);
+			if (hook != null && !Modifier.isStatic(method.getModifiers())) {
+				hooks.putIfAbsent(hook.value(), method);
 			}
 		}
-		for (Command command : children) {
-			command.registerListener(listener);
+		return hooks;
+	}
+	
+	private void registerListener(Object listener, Map<String, Method> hooks) {
+		this.listener = listener;
+		Method method = hookName == null ? null : hooks.get(hookName);
+		if (method != null) {
+			hook = bindHook(method, listener);
+		}
+		for (Command command : getChildren()) {
+			command.registerListener(listener, hooks);
 		}
 	}
 	
 	/**
-	 * Create a new Command from an InputStream. Use Plugin#getResource to get this stream. See the examplecmd.txt for format.
+	 * Binds a hook method to this command. The parameters are checked against the command's arguments here, so a
+	 * mismatch is reported when the listener is registered rather than the first time the command is run.
+	 * @return An invoker calling the method through a handle taking the sender and the converted arguments
+	 */
+	private CommandInvoker bindHook(Method method, Object listener) {
+		int count = getValueCount();
+		Class<?>[] params = method.getParameterTypes();
+		boolean valid = params.length == count + 1 && (CommandSender.class.isAssignableFrom(params[0]) || params[0].isAssignableFrom(CommandSender.class));
+		for (int i = 0; valid && i < count; i++) {
+			valid = accepts(args[i].getType(), params[i + 1]);
+		}
+		if (!valid) {
+			String expectedTypes = "CommandSender";
+			for (int i = 0; i < count; i++) {
+				expectedTypes += ", " + args[i].getTypeName();
+			}
+			String foundTypes = "";
+			for (Class<?> param : params) {
+				foundTypes += param.getSimpleName() + ", ";
+			}
+			throw new IllegalArgumentException("Invalid arguments for method hook '" + hookName + "' (" + method.getName() + "). The arguments should be CommandSender followed by all other argument types."
+					+ " Expected types: " + expectedTypes + ". Found types: " + foundTypes.replaceAll(", $", ""));
+		}
+		if (remote != null && !params[0].isAssignableFrom(CommandSender.class)) {
+			throw new IllegalArgumentException("Invalid arguments for method hook '" + hookName + "' (" + method.getName() + "). The command is marked remote, so the hook is run as a stand-in for the"
+					+ " sender on another server and must take a CommandSender, not a " + params[0].getSimpleName());
+		}
+		try {
+			Class<?>[] types = new Class<?>[count + 1];
+			Arrays.fill(types, Object.class);
+			types[0] = CommandSender.class;
+			MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(listener);
+			handle = handle.asType(MethodType.methodType(void.class, types));
+			if (count != 0 && args[count - 1].getType() == CommandArgumentType.MULTISTRING && params[count] != CharSequence.class) {
+				handle = MethodHandles.filterArguments(handle, count, TO_STRING);
+			}
+			MethodHandle spread = handle.asSpreader(Object[].class, count);
+			return (sender, values) -> {
+				spread.invokeExact(sender, values);
+			};
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Could not bind method hook '" + hookName + "', the method is not public", e);
+		}
+	}
+	
+	private int getValueCount() {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].getType() == CommandArgumentType.MULTISTRING) {
+				return i + 1;
+			}
+		}
+		return args.length;
+	}
+	
+	private static boolean accepts(CommandArgumentType type, Class<?> param) {
+		switch (type) {
+			case INT:
+				return param == int.class || param.isAssignableFrom(Integer.class);
+			case DOUBLE:
+				return param == double.class || param.isAssignableFrom(Double.class);
+			case STRING:
+			case MULTISTRING:
+				return param.isAssignableFrom(String.class);
+			default:
+				return !param.isPrimitive();
+		}
+	}
+	
+	/**
+	 * Create new Commands from an InputStream. Use Plugin#getResource to get this stream. See the examplecmd.txt for format.
 	 * @param stream The InputStream to read from
-	 * @return A Command which represents the information from the stream
-	 * @throws IOException
+	 * @return The Commands which represent the information from the stream, in the order they were defined
+	 * @throws CommandParseException If the command file is malformed. The message includes the line and column.
+	 * @throws IOException If the stream could not be read
 	 */
 	public static List<Command> fromStreamMulti(InputStream stream) throws IOException {
 		if (stream == null) {
 			throw new IllegalArgumentException("Stream cannot be null");
 		}
-		InputStreamReader read = new InputStreamReader(stream);
-		BufferedReader reader = new BufferedReader(read);
-		String combine = "";
-		String line = "";
-		try {
-			while ((line = reader.readLine()) != null) {
-				combine += line + "\n";
-			}	
-		} catch (EOFException e) {
+		List<Command> commands = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+			for (CommandDefinition definition : CommandParser.parse(reader)) {
+				commands.add(fromDefinition(definition, true));
+			}
 		}
-		reader.close();
-		return fromString(combine);
+		return commands;
 	}
 	
+	/**
+	 * Create a new Command from an InputStream. Use Plugin#getResource to get this stream. See the examplecmd.txt for format.
+	 * @param stream The InputStream to read from
+	 * @return A Command which represents the first command defined in the stream
+	 * @throws CommandParseException If the command file is malformed or defines no commands
+	 * @throws IOException If the stream could not be read
+	 */
 	public static Command fromStream(InputStream stream) throws IOException {
-		if (stream == null) {
-			throw new IllegalArgumentException("Stream cannot be null");
+		List<Command> commands = fromStreamMulti(stream);
+		if (commands.isEmpty()) {
+			throw new CommandParseException("No command defined", 1, 1);
 		}
-		InputStreamReader read = new InputStreamReader(stream);
-		BufferedReader reader = new BufferedReader(read);
-		String combine = "";
-		String line = "";
-		try {
-			while ((line = reader.readLine()) != null) {
-				combine += line + "\n";
-			}	
-		} catch (EOFException e) {
-		}
-		reader.close();
-		return fromStringSingle(combine, 0);
-	}
-	
-	private static Command fromStringSingle(String string, int lineNumber) {
-		String[] split = string.split("\n");
-		String[] names = null;
-		String permission = null;
-		String users = null;
-		String hook = null;
-		String help = null;
-		boolean hideSub = false;
-		List<Command> children = new ArrayList<>();
-		CommandArgument[] args = null;
-		int depth = 0;
-		for (int lineIter = lineNumber; lineIter < split.length; lineIter++) {
-			String line = split[lineIter];
-			line = line.trim();
-			if (line.endsWith("{")) {
-				depth++;
-				if (depth == 1) {
-					String[] lineSplit = line.split(" ");
-					names = lineSplit[0].split(",");
-					System.out.println("Loading command '" + names[0] + "'");
-					args = new CommandArgument[lineSplit.length - 2];
-					for (int i = 1; i < lineSplit.length - 1; i++) {
-						String[] argSplit = lineSplit[i].split(":");
-						args[i - 1] = new CommandArgument(argSplit[0], argSplit[1]);
-					}
-				} else if (depth == 2) {
-					children.add(fromStringSingle(string, lineIter));
-				}
+		return commands.get(0);
+	}
+	
+	/**
+	 * Creates a Command from a definition, which can be parsed from a command file with {@link CommandParser} or built in code.
+	 * Unlike loading from a stream, this does not log each command it creates.
+	 * @param definition The definition of the command and its children
+	 * @return The Command
+	 */
+	public static Command fromDefinition(CommandDefinition definition) {
+		return fromDefinition(definition, false);
+	}
+	
+	private static Command fromDefinition(CommandDefinition definition, boolean log) {
+		if (log) {
+			System.out.println("Loading command '" + definition.getNames()[0] + "'");
+		}
+		String[][] argDefinitions = definition.getArgs();
+		CommandArgument[] args = new CommandArgument[argDefinitions.length];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = new CommandArgument(argDefinitions[i][0], argDefinitions[i][1]);
+		}
+		Command command = new Command(definition.getNames(), definition.getDirective("permission"), definition.getDirective("help"), Users.parse(definition.getDirective("users")),
+				definition.getDirective("hook"), definition.hasDirective("hidesub"), args);
+		command.async = definition.hasDirective("async");
+		command.bypass = definition.getDirective("bypass");
+		command.remote = definition.getDirective("remote");
+		List<RateLimiter> limits = new ArrayList<>();
+		if (definition.hasDirective("cooldown")) {
+			limits.add(RateLimiter.cooldown(definition.getDirective("cooldown")));
+		}
+		if (definition.hasDirective("ratelimit")) {
+			limits.add(RateLimiter.rate(definition.getDirective("ratelimit")));
+		}
+		if (!limits.isEmpty()) {
+			if (limits.contains(null)) {
+				throw new IllegalArgumentException("Invalid cooldown or rate limit on command '" + definition.getNames()[0] + "' (line " + definition.getLine() + ")");
 			}
-			if (line.equals("}")) {
-				depth--;
-				if (depth == 0) {
-					if (users == null) {
-						users = "everyone";
-					}
-					Command command = new Command(names, permission, help, users, hook, hideSub, args);
-					for (Command child : children) {
-						command.addChild(child);
+			command.limits = limits.toArray(new RateLimiter[0]);
+		}
+		List<Command> children = new ArrayList<>(definition.getChildren().size());
+		for (CommandDefinition child : definition.getChildren()) {
+			children.add(fromDefinition(child, log));
+		}
+		command.addChildren(children);
+		return command;
+	}
+	
+	/**
+	 * Registers a type provider. It is used by this command and all of its children, including ones added later.
+	 * @param provider The type provider to register
+	 */
+	public synchronized <T> void registerTypeProvider(TypeProvider<T> provider) {
+		System.out.println("Registering type provider '" + provider.getName() + "'");
+		if (providers == null) {
+			// Most commands never have providers of their own, so the map is only created when one is registered
+			providers = new ConcurrentHashMap<>();
+		}
+		providers.put(provider.getName(), provider);
+		providersChanged();
+		treeChanged();
+	}
+	
+	/**
+	 * Finds a type provider registered on this command or the closest parent which has one with the given name.
+	 */
+	private TypeProvider<?> findProvider(String name) {
+		for (Command command = this; command != null; command = command.parent) {
+			Map<String, TypeProvider<?>> providers = command.providers;
+			TypeProvider<?> provider = providers == null ? null : providers.get(name);
+			if (provider != null) {
+				return provider;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * The dispatch table of a command. The routes of an alias are only ever replaced as a whole in a concurrent map, so
+	 * a table can be read from any thread while it is updated. The index is only read for tab completion, so the names
+	 * of added children wait to be sorted in until it is next read, and the entries of removed children are marked and
+	 * left out the next time it is sorted. Only changed while holding the lock on its command.
+	 */
+	private static class Dispatch {
+		
+		private final Map<String, Route[]> routes;
+		private final Route[] overloads;
+		private volatile IndexEntry[] index;
+		private List<IndexEntry> added = new ArrayList<>();
+		private int removed = 0;
+		private volatile boolean stale = false;
+		private volatile int modCount;
+		
+		private Dispatch(Map<String, Route[]> routes, Route[] overloads, IndexEntry[] index, int modCount) {
+			this.routes = routes;
+			this.overloads = overloads;
+			this.index = index;
+			this.modCount = modCount;
+		}
+		
+		/**
+		 * Marks the entries of a removed child as removed.
+		 */
+		private void remove(Command command) {
+			IndexEntry[] index = this.index;
+			for (String name : command.names) {
+				String key = name.toLowerCase();
+				for (int i = find(index, key); i < index.length && index[i].key.equals(key); i++) {
+					if (index[i].command == command && !index[i].removed) {
+						index[i].removed = true;
+						removed++;
 					}
-					command.lineNum = lineIter;
-					return command;
 				}
 			}
-			if (depth == 1) {
-				if (line.startsWith("hook ")) {
-					hook = line.replaceFirst("hook ", "");
-				}
-				if (line.startsWith("permission ")) {
-					permission = line.replaceFirst("permission ", "");
-				}
-				if (line.startsWith("users ")) {
-					users = line.replaceFirst("users ", "");
+			added.removeIf((entry) -> entry.command == command);
+		}
+		
+		/**
+		 * Sorts the entries of added children into the index, after the entries with equal keys as in a full rebuild,
+		 * and leaves out the removed ones.
+		 */
+		private void sort() {
+			if (!stale) {
+				return;
+			}
+			added.sort((a, b) -> a.key.compareTo(b.key));
+			IndexEntry[] index = this.index;
+			IndexEntry[] sorted = new IndexEntry[index.length - removed + added.size()];
+			int count = 0;
+			int j = 0;
+			for (IndexEntry entry : index) {
+				if (entry.removed) {
+					continue;
 				}
-				if (line.startsWith("help ")) {
-					help = line.replaceFirst("help ", "");
+				while (j < added.size() && added.get(j).key.compareTo(entry.key) < 0) {
+					sorted[count++] = added.get(j++);
 				}
-				if (line.startsWith("hidesub")) {	
-					hideSub = true;
+				sorted[count++] = entry;
+			}
+			while (j < added.size()) {
+				sorted[count++] = added.get(j++);
+			}
+			this.index = sorted;
+			added.clear();
+			removed = 0;
+			stale = false;
+		}
+		
+	}
+	
+	/**
+	 * The children of a command, in an array which may be longer than the number of children. Adding a child fills the
+	 * next free slot and publishes a new instance with the larger size, so a reader only sees the children which were
+	 * there when it read the instance.
+	 */
+	private static class Children {
+		
+		private final Command[] array;
+		private final int size;
+		
+		private Children(Command[] array, int size) {
+			this.array = array;
+			this.size = size;
+		}
+		
+	}
+	
+	/**
+	 * The command the registered server commands currently run, which is swapped by {@link Command#replace(Command)}.
+	 */
+	private static class Registration {
+		
+		private volatile Command root;
+		
+		private Registration(Command root) {
+			this.root = root;
+		}
+		
+	}
+	
+	private static class ResolvedProvider {
+		
+		private final TypeProvider<?> provider;
+		private final int stamp;
+		
+		private ResolvedProvider(TypeProvider<?> provider, int stamp) {
+			this.provider = provider;
+			this.stamp = stamp;
+		}
+		
+	}
+	
+	/**
+	 * The state of one dispatch: the values arguments were converted to by type providers, so that an argument is
+	 * converted at most once even when several overloads are tried, and the result of the dispatch along with the
+	 * command which produced it. A dispatch usually
+	 * converts only a few arguments, so they are kept in small arrays and searched linearly.
+	 */
+	private static class Context {
+		
+		private TypeProvider<?>[] providers = null;
+		private String[] inputs;
+		private Object[] values;
+		private int size = 0;
+		private boolean quiet;
+		private CommandResult result = null;
+		private Command command = null;
+		private int offset;
+		private long start;
+		private boolean deferred = false;
+		
+		/**
+		 * @param quiet Whether to leave out the messages CmdMgr would send to the sender
+		 */
+		private Context(boolean quiet) {
+			this.quiet = quiet;
+		}
+		
+		private Object convert(TypeProvider<?> provider, String input) {
+			for (int i = 0; i < size; i++) {
+				if (providers[i] == provider && inputs[i].equals(input)) {
+					return values[i];
 				}
 			}
+			Object value = provider.get(input);
+			if (providers == null) {
+				providers = new TypeProvider<?>[4];
+				inputs = new String[4];
+				values = new Object[4];
+			} else if (size == providers.length) {
+				providers = Arrays.copyOf(providers, size * 2);
+				inputs = Arrays.copyOf(inputs, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			providers[size] = provider;
+			inputs[size] = input;
+			values[size] = value;
+			size++;
+			return value;
 		}
-		return null;
+		
+		private void reply(CommandSender sender, CommandResult result, String message) {
+			this.result = result;
+			if (!quiet) {
+				sender.sendMessage(message);
+			}
+		}
+		
+		/**
+		 * Shows help for a command. The result is only set if no overload tried before recorded a more specific one.
+		 */
+		private void showHelp(Command command, CommandSender sender, int page, CommandResult result) {
+			if (this.result == null) {
+				this.result = result;
+			}
+			if (!quiet) {
+				command.showHelp(sender, page);
+			}
+		}
+		
+		/**
+		 * Shows a short help message in place of a command's help page.
+		 */
+		private void showHelp(Command command, CommandSender sender, String message, CommandResult result) {
+			if (this.result == null) {
+				this.result = result;
+			}
+			if (!quiet) {
+				sender.sendMessage(message);
+			}
+		}
+		
 	}
 	
-	private static List<Command> fromString(String string) {
-		List<Command> all = new ArrayList<>();
-		Command command;
-		int lineNum = 0;
-		while ((command = fromStringSingle(string, lineNum)) != null) {
-			all.add(command);
-			lineNum = command.lineNum + 1;
+	/**
+	 * What a sender's last tab request completed: the arguments before the one being typed, the prefix typed so far,
+	 * and the command which completed it along with what its type provider returned. If no command had completions,
+	 * the command is null and the session cannot be continued, since a longer prefix may still match a command name.
+	 */
+	private static class TabSession {
+		
+		private Command root;
+		private String[] preceding;
+		private String prefix;
+		private int version;
+		private Command command = null;
+		private int offset;
+		private List<String> provided = null;
+		private boolean uncached = false;
+		
+		private TabSession(Command root, String[] args, String prefix, int version) {
+			this.root = root;
+			preceding = Arrays.copyOf(args, args.length - 1);
+			this.prefix = prefix;
+			this.version = version;
+		}
+		
+		/**
+		 * Checks whether a tab request only typed further into the argument completed by this session.
+		 */
+		private boolean continues(Command root, String[] args, String prefix, int version) {
+			if (command == null || uncached || this.root != root || this.version != version || !prefix.startsWith(this.prefix) || args.length != preceding.length + 1) {
+				return false;
+			}
+			for (int i = 0; i < preceding.length; i++) {
+				if (!preceding[i].equals(args[i])) {
+					return false;
+				}
+			}
+			return true;
 		}
-		return all;
+		
 	}
 	
 	/**
-	 * Registers a type provider
-	 * @param provider The type provider to register
+	 * A batch of command lines being run for one sender, possibly over several ticks.
 	 */
-	public <T> void registerTypeProvider(TypeProvider<T> provider) {
-		System.out.println("Registering type provider '" + provider.getName() + "'");
-		registerTypeProviderSilent(provider);
+	private static class Batch {
+		
+		private CommandSender sender;
+		private List<String> lines;
+		private boolean quiet;
+		private Map<String, Registration> roots = new HashMap<>();
+		private List<CommandResult> results;
+		
+		private Batch(CommandSender sender, List<String> lines, boolean quiet) {
+			this.sender = sender;
+			this.lines = lines;
+			this.quiet = quiet;
+			results = new ArrayList<>(lines.size());
+		}
+		
+		/**
+		 * Runs up to the given number of the lines which have not been run yet.
+		 */
+		private void run(int count) {
+			int end = Math.min(lines.size(), results.size() + count);
+			while (results.size() < end) {
+				results.add(run(lines.get(results.size())));
+			}
+		}
+		
+		private void runTicks(CompletableFuture<List<CommandResult>> future, int linesPerTick) {
+			try {
+				run(linesPerTick);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+				return;
+			}
+			if (results.size() == lines.size()) {
+				future.complete(results);
+				return;
+			}
+			AsyncCommands.runLater(() -> runTicks(future, linesPerTick));
+		}
+		
+		/**
+		 * Runs one line, splitting it the same way the server's command map does.
+		 */
+		private CommandResult run(String line) {
+			String[] split = (line.startsWith("/") ? line.substring(1) : line).split(" ");
+			Registration registration = getRoot(split[0].toLowerCase());
+			if (registration == null) {
+				if (!quiet) {
+					sender.sendMessage("Unknown command. Type \"/help\" for help.");
+				}
+				return CommandResult.UNKNOWN_COMMAND;
+			}
+			return registration.root.dispatch(sender, Arrays.copyOfRange(split, 1, split.length), new Context(quiet));
+		}
+		
+		/**
+		 * Finds the registered command with a name, which may be prefixed like prefix:name. The registration is kept
+		 * rather than the command, so a command reloaded partway through a batch is used from then on.
+		 */
+		private Registration getRoot(String label) {
+			if (roots.containsKey(label)) {
+				return roots.get(label);
+			}
+			String name = label.substring(label.indexOf(':') + 1);
+			Registration found = null;
+			for (Command command : registered) {
+				for (String alias : command.names) {
+					if (found == null && command.registration != null && alias.equalsIgnoreCase(name)) {
+						found = command.registration;
+					}
+				}
+			}
+			roots.put(label, found);
+			return found;
+		}
+		
 	}
 	
-	private <T> void registerTypeProviderSilent(TypeProvider<T> provider) {
-		System.out.println();
-		providers.put(provider.getName(), provider);
-		for (Command child : children) {
-			child.registerTypeProviderSilent(provider);
+	private static class Route {
+		
+		private Command command;
+		private int skip;
+		
+		private Route(Command command, int skip) {
+			this.command = command;
+			this.skip = skip;
 		}
+		
 	}
 	
-	public static class CommandArgument {
+	private static class HelpCache {
 		
+		private Map<String, Integer> permissions;
+		private String[] names;
+		private int[] ids;
+		private ExpiringCache<BitSet, String> rendered = new ExpiringCache<>(0, TimeUnit.SECONDS, 64);
+		
+		private HelpCache(Map<String, Integer> permissions) {
+			this.permissions = permissions;
+			names = new String[permissions.size()];
+			ids = new int[names.length];
+			for (Map.Entry<String, Integer> entry : permissions.entrySet()) {
+				names[entry.getValue()] = entry.getKey();
+				ids[entry.getValue()] = PermissionCache.getId(entry.getKey());
+			}
+		}
+		
+	}
+	
+	private static class IndexEntry {
+		
+		private String key;
 		private String name;
-		private String type;
-		private TypeProvider<?> provider;
+		private Command command;
+		private boolean primary;
+		private volatile boolean removed = false;
 		
-		public CommandArgument(String type, String name) {
-			this.type = type;
+		private IndexEntry(Command command, String name, boolean primary) {
+			this.key = name.toLowerCase();
 			this.name = name;
+			this.command = command;
+			this.primary = primary;
 		}
 		
-		public CommandArgumentType getType() {
+	}
+	
+	public static class CommandArgument {
+		
+		private String name;
+		private String type;
+		private CommandArgumentType kind;
+		private String providerName;
+		private volatile ResolvedProvider provider;
+		
+		public CommandArgument(String type, String name) {
+			this.type = type.intern();
+			this.name = name.intern();
+			providerName = type.replace("*", "").intern();
 			try {
-				return CommandArgumentType.valueOf(type.toUpperCase().replace("*", ""));
+				kind = CommandArgumentType.valueOf(providerName.toUpperCase());
 			} catch (IllegalArgumentException e) {
-				return CommandArgumentType.CUSTOM;
+				kind = CommandArgumentType.CUSTOM;
 			}
 		}
 		
+		public CommandArgumentType getType() {
+			return kind;
+		}
+		
 		public TypeProvider<?> getProvider(Command command) {
-			if (getType() == CommandArgumentType.CUSTOM) {
-				if (provider == null) {
-					provider = command.providers.get(type.replace("*", ""));
+			if (kind == CommandArgumentType.CUSTOM) {
+				ResolvedProvider resolved = provider;
+				int stamp = command.providerStamp;
+				if (resolved == null || resolved.stamp != stamp) {
+					resolved = new ResolvedProvider(command.findProvider(providerName), stamp);
+					provider = resolved;
 				}
-				return provider;
+				return resolved.provider;
 			}
 			return null;
 		}
@@ -599,6 +2163,19 @@ public class Command {
 			return name;
 		}
 		
+		String getTypeName() {
+			switch (getType()) {
+				case INT:
+					return "int";
+				case DOUBLE:
+					return "double";
+				case CUSTOM:
+					return providerName;
+				default:
+					return "String";
+			}
+		}
+		
 		public String toString(Command command) {
 			if (type.startsWith("*")) {
 				return "<" + name + ">";
@@ -617,6 +2194,79 @@ public class Command {
 		
 	}
 	
+	/**
+	 * Which senders may use a command, as set by the users directive. Unknown values allow everyone.
+	 */
+	private static enum Users {
+		
+		EVERYONE,
+		CONSOLE,
+		PLAYER;
+		
+		private static Users parse(String users) {
+			if (users == null) {
+				return EVERYONE;
+			}
+			switch (users) {
+				case "console":
+					return CONSOLE;
+				case "player":
+					return PLAYER;
+				default:
+					return EVERYONE;
+			}
+		}
+		
+	}
+	
+	/**
+	 * How running a command line went, as reported by {@link Command#executeBatch(CommandSender, List, boolean)}.
+	 */
+	public static enum CommandResult {
+		
+		/**
+		 * The hook ran without errors, or was queued if the command is async
+		 */
+		SUCCESS,
+		/**
+		 * The arguments did not match the command, so help was shown
+		 */
+		PARSE_ERROR,
+		/**
+		 * Help was asked for, or the command has no hook
+		 */
+		HELP,
+		/**
+		 * The sender did not have permission
+		 */
+		PERMISSION_DENIED,
+		/**
+		 * The command is only for players or only for console
+		 */
+		WRONG_SENDER,
+		/**
+		 * The sender hit a cooldown or rate limit
+		 */
+		RATE_LIMITED,
+		/**
+		 * The command is async and too many async hooks were already pending
+		 */
+		BUSY,
+		/**
+		 * The hook was missing or threw an exception
+		 */
+		ERROR,
+		/**
+		 * The command was sent to another server to run
+		 */
+		FORWARDED,
+		/**
+		 * No command registered through CmdMgr has that name
+		 */
+		UNKNOWN_COMMAND
+		
+	}
+	
 	public static enum CommandArgumentType {
 		
 		STRING,
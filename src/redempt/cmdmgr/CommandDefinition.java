@@ -0,0 +1,72 @@
+package redempt.cmdmgr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A command as written in a command file, before it is turned into a {@link Command} with {@link Command#fromDefinition(CommandDefinition)}.
+ */
+public class CommandDefinition {
+	
+	private String[] names;
+	private String[][] args;
+	private Map<String, String> directives = new LinkedHashMap<>();
+	private List<CommandDefinition> children = new ArrayList<>();
+	private int line;
+	
+	/**
+	 * @param names The names of the command
+	 * @param args The arguments of the command, each given as {type, name}
+	 * @param line The line the command starts on, used in error messages
+	 */
+	public CommandDefinition(String[] names, String[][] args, int line) {
+		this.names = names;
+		this.args = args;
+		this.line = line;
+	}
+	
+	public String[] getNames() {
+		return names;
+	}
+	
+	public String[][] getArgs() {
+		return args;
+	}
+	
+	/**
+	 * Gets a directive of this command, like hook or permission.
+	 * @param name The name of the directive
+	 * @return The value of the directive, an empty String if it is a flag like hidesub, or null if it is absent
+	 */
+	public String getDirective(String name) {
+		return directives.get(name);
+	}
+	
+	public boolean hasDirective(String name) {
+		return directives.containsKey(name);
+	}
+	
+	public Map<String, String> getDirectives() {
+		return Collections.unmodifiableMap(directives);
+	}
+	
+	public void setDirective(String name, String value) {
+		directives.put(name, value);
+	}
+	
+	public List<CommandDefinition> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+	
+	public void addChild(CommandDefinition child) {
+		children.add(child);
+	}
+	
+	public int getLine() {
+		return line;
+	}
+	
+}
@@ -0,0 +1,20 @@
+package redempt.cmdmgr;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a listener class whose commands should be compiled ahead of time. At compile time, the command file is
+ * parsed and checked against the listener's {@link CommandHook} methods, and a class named after the listener with
+ * the suffix "Commands" is generated next to it. Its create method builds the commands with their hooks already
+ * bound, so no parsing or reflection happens when the plugin starts.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface CommandFile {
+	
+	/**
+	 * @return The path of the command file resource, like "commands.txt"
+	 */
+	String value();
+	
+}
@@ -0,0 +1,20 @@
+package redempt.cmdmgr;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Calls the hook of a command. Hooks found by reflection in a listener are wrapped in one of these; code generated by
+ * {@link redempt.cmdmgr.processor.CommandProcessor} implements it directly.
+ */
+@FunctionalInterface
+public interface CommandInvoker {
+	
+	/**
+	 * Runs the hook.
+	 * @param sender The sender of the command
+	 * @param args The converted arguments, in the order they are defined in the command file. A multistring argument is given as a CharSequence.
+	 * @throws Throwable Anything thrown by the hook
+	 */
+	public void invoke(CommandSender sender, Object[] args) throws Throwable;
+	
+}
@@ -1,6 +1,13 @@
 package redempt.cmdmgr;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class CommandManager extends JavaPlugin {
@@ -8,6 +15,55 @@ public class CommandManager extends JavaPlugin {
 	@Override
 	public void onEnable() {
 		Bukkit.getLogger().info("CmdMgr by Redempt, a utility to make commands easier");
+		AsyncCommands.setPlugin(this);
+		PermissionCache.registerListener(this);
+		try {
+			Command.registerAll("cmdmgr", this, Command.fromStreamMulti(getResource("cmdmgr.txt")));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public void onDisable() {
+		AuditLog.stop();
+	}
+	
+	@CommandHook("stats")
+	public void stats(CommandSender sender) {
+		stats(sender, 10);
+	}
+	
+	@CommandHook("statsTop")
+	public void stats(CommandSender sender, int count) {
+		count = Math.max(1, count);
+		List<Metrics.Snapshot> snapshots = new ArrayList<>();
+		for (Command command : Command.getRegisteredCommands()) {
+			snapshots.addAll(command.snapshotMetrics());
+		}
+		snapshots.removeIf((s) -> s.getCalls() == 0);
+		String message = ChatColor.GREEN + "--" + ChatColor.YELLOW + "[ Command stats ]" + ChatColor.GREEN + "--";
+		if (snapshots.isEmpty()) {
+			sender.sendMessage(message + "\n" + ChatColor.YELLOW + "No commands have been run yet");
+			return;
+		}
+		message += "\n" + ChatColor.GREEN + "Most used:";
+		snapshots.sort(Comparator.comparingLong(Metrics.Snapshot::getCalls).reversed());
+		for (Metrics.Snapshot snapshot : snapshots.subList(0, Math.min(count, snapshots.size()))) {
+			message += "\n" + ChatColor.YELLOW + "/" + snapshot.getName() + ChatColor.WHITE + " - " + snapshot.getCalls() + " runs, p99 " + formatNanos(snapshot.getP99Nanos())
+					+ (snapshot.getErrors() == 0 ? "" : ", " + ChatColor.RED + snapshot.getErrors() + " errors");
+		}
+		message += "\n" + ChatColor.GREEN + "Slowest (p99):";
+		snapshots.sort(Comparator.comparingLong(Metrics.Snapshot::getP99Nanos).reversed());
+		for (Metrics.Snapshot snapshot : snapshots.subList(0, Math.min(count, snapshots.size()))) {
+			message += "\n" + ChatColor.YELLOW + "/" + snapshot.getName() + ChatColor.WHITE + " - p99 " + formatNanos(snapshot.getP99Nanos()) + ", max "
+					+ formatNanos(snapshot.getMaxNanos()) + ", " + snapshot.getCalls() + " runs";
+		}
+		sender.sendMessage(message);
+	}
+	
+	private static String formatNanos(long nanos) {
+		return String.format("%.2fms", nanos / 1e6);
 	}
 	
 }
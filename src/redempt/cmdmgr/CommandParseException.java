@@ -0,0 +1,40 @@
+package redempt.cmdmgr;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a command file is malformed.
+ */
+public class CommandParseException extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private int line;
+	private int column;
+	
+	/**
+	 * @param message The description of the problem
+	 * @param line The line the problem is on, starting at 1
+	 * @param column The column the problem is at, starting at 1
+	 */
+	public CommandParseException(String message, int line, int column) {
+		super(message + " (line " + line + ", column " + column + ")");
+		this.line = line;
+		this.column = column;
+	}
+	
+	/**
+	 * @return The line the problem is on, starting at 1
+	 */
+	public int getLine() {
+		return line;
+	}
+	
+	/**
+	 * @return The column the problem is at, starting at 1
+	 */
+	public int getColumn() {
+		return column;
+	}
+	
+}
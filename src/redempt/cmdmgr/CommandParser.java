@@ -0,0 +1,159 @@
+package redempt.cmdmgr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads command files in a single pass, line by line. See examplecmd.txt for the format. This class does not depend
+ * on Bukkit, so that it can also be used at compile time.
+ */
+public class CommandParser {
+	
+	private static final Map<String, Boolean> DIRECTIVES = new HashMap<>();
+	
+	static {
+		// Maps each directive to whether it takes a value
+		DIRECTIVES.put("hook", true);
+		DIRECTIVES.put("permission", true);
+		DIRECTIVES.put("users", true);
+		DIRECTIVES.put("help", true);
+		DIRECTIVES.put("hidesub", false);
+		DIRECTIVES.put("async", false);
+		DIRECTIVES.put("cooldown", true);
+		DIRECTIVES.put("ratelimit", true);
+		DIRECTIVES.put("bypass", true);
+		DIRECTIVES.put("remote", true);
+	}
+	
+	private CommandParser() {
+	}
+	
+	/**
+	 * Checks whether a directive takes a value, like hook, or is a flag, like hidesub.
+	 * @param name The name of the directive
+	 * @return Whether the directive takes a value, or null if there is no such directive
+	 */
+	public static Boolean takesValue(String name) {
+		return DIRECTIVES.get(name);
+	}
+	
+	/**
+	 * Parses all of the top-level commands from a reader.
+	 * @param reader The reader to read from. It is not closed.
+	 * @return The top-level commands, in the order they were defined
+	 * @throws CommandParseException If the file is malformed
+	 * @throws IOException If the reader throws
+	 */
+	public static List<CommandDefinition> parse(BufferedReader reader) throws IOException {
+		List<CommandDefinition> roots = new ArrayList<>();
+		Deque<CommandDefinition> open = new ArrayDeque<>();
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			int start = skipSpace(line, 0);
+			int end = line.length();
+			while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+				end--;
+			}
+			if (start == end || line.startsWith("//", start)) {
+				continue;
+			}
+			if (line.charAt(end - 1) == '{') {
+				CommandDefinition definition = parseHeader(line, start, end - 1, lineNumber);
+				if (open.isEmpty()) {
+					roots.add(definition);
+				} else {
+					open.peek().addChild(definition);
+				}
+				open.push(definition);
+				continue;
+			}
+			if (end - start == 1 && line.charAt(start) == '}') {
+				if (open.isEmpty()) {
+					throw new CommandParseException("Unexpected '}' with no command to close", lineNumber, start + 1);
+				}
+				open.pop();
+				continue;
+			}
+			if (!open.isEmpty()) {
+				parseDirective(open.peek(), line, start, end, lineNumber);
+			}
+		}
+		if (!open.isEmpty()) {
+			CommandDefinition unclosed = open.peek();
+			throw new CommandParseException("Command '" + unclosed.getNames()[0] + "' opened on line " + unclosed.getLine() + " is missing its closing '}'", lineNumber + 1, 1);
+		}
+		return roots;
+	}
+	
+	private static CommandDefinition parseHeader(String line, int start, int end, int lineNumber) throws CommandParseException {
+		List<String> tokens = new ArrayList<>();
+		List<Integer> columns = new ArrayList<>();
+		int pos = skipSpace(line, start);
+		while (pos < end) {
+			int tokenEnd = pos;
+			while (tokenEnd < end && !Character.isWhitespace(line.charAt(tokenEnd))) {
+				tokenEnd++;
+			}
+			tokens.add(line.substring(pos, tokenEnd));
+			columns.add(pos + 1);
+			pos = skipSpace(line, tokenEnd);
+		}
+		if (tokens.isEmpty()) {
+			throw new CommandParseException("Expected a command name before '{'", lineNumber, end + 1);
+		}
+		String[] names = tokens.get(0).split(",", -1);
+		for (String name : names) {
+			if (name.isEmpty()) {
+				throw new CommandParseException("Empty command name in '" + tokens.get(0) + "'", lineNumber, columns.get(0));
+			}
+		}
+		String[][] args = new String[tokens.size() - 1][];
+		for (int i = 1; i < tokens.size(); i++) {
+			String[] split = tokens.get(i).split(":", -1);
+			if (split.length != 2 || split[0].isEmpty() || split[1].isEmpty()) {
+				throw new CommandParseException("Malformed argument '" + tokens.get(i) + "', expected type:name", lineNumber, columns.get(i));
+			}
+			args[i - 1] = split;
+		}
+		return new CommandDefinition(names, args, lineNumber);
+	}
+	
+	private static void parseDirective(CommandDefinition definition, String line, int start, int end, int lineNumber) throws CommandParseException {
+		int nameEnd = start;
+		while (nameEnd < end && !Character.isWhitespace(line.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		String name = line.substring(start, nameEnd);
+		Boolean hasValue = DIRECTIVES.get(name);
+		if (hasValue == null) {
+			return;
+		}
+		String value = line.substring(skipSpace(line, nameEnd), end);
+		if (hasValue && value.isEmpty()) {
+			throw new CommandParseException("Directive '" + name + "' requires a value", lineNumber, nameEnd + 1);
+		}
+		if (name.equals("cooldown") && RateLimiter.cooldown(value) == null) {
+			throw new CommandParseException("Invalid cooldown '" + value + "', expected a duration like 5s", lineNumber, skipSpace(line, nameEnd) + 1);
+		}
+		if (name.equals("ratelimit") && RateLimiter.rate(value) == null) {
+			throw new CommandParseException("Invalid rate limit '" + value + "', expected uses per duration like 10/min", lineNumber, skipSpace(line, nameEnd) + 1);
+		}
+		definition.setDirective(name, value);
+	}
+	
+	private static int skipSpace(String line, int pos) {
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+	
+}
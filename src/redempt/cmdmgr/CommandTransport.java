@@ -0,0 +1,22 @@
+package redempt.cmdmgr;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries commands marked with the remote directive to the server they should run on, for example over plugin
+ * messaging or a message broker. Implementations only move bytes: the sending side passes batches from
+ * {@link #send(String, byte[])}, and the receiving side hands them to {@link RemoteCommands#receive(byte[])} and
+ * sends the bytes it completes with back as the reply.
+ * @see RemoteCommands#setTransport(CommandTransport)
+ */
+public interface CommandTransport {
+	
+	/**
+	 * Sends a batch of commands to another server.
+	 * @param server The name of the server, as given to the remote directive
+	 * @param payload The encoded batch
+	 * @return A future completed with the reply the other server got from {@link RemoteCommands#receive(byte[])}
+	 */
+	public CompletableFuture<byte[]> send(String server, byte[] payload);
+	
+}
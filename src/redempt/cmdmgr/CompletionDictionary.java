@@ -0,0 +1,76 @@
+package redempt.cmdmgr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * A fixed set of tab completions which answers prefix queries by binary search. It cannot be modified, so build a new one when the values change.
+ * @see TypeProvider#setTabDictionary(Collection)
+ */
+public class CompletionDictionary implements TypeProvider.Completer {
+	
+	private String[] keys;
+	private String[] values;
+	
+	/**
+	 * Creates a dictionary from a collection of values. Null values are ignored.
+	 * @param values The possible completions
+	 */
+	public CompletionDictionary(Collection<String> values) {
+		List<String> sorted = new ArrayList<>(values.size());
+		for (String value : values) {
+			if (value != null) {
+				sorted.add(value);
+			}
+		}
+		sorted.sort((a, b) -> a.toLowerCase().compareTo(b.toLowerCase()));
+		this.values = sorted.toArray(new String[0]);
+		keys = new String[this.values.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = this.values[i].toLowerCase();
+		}
+	}
+	
+	@Override
+	public Stream<String> complete(CommandSender sender, String prefix, int limit) {
+		return Arrays.stream(find(prefix, limit));
+	}
+	
+	/**
+	 * Finds the values which start with a prefix, ignoring case.
+	 * @param prefix The prefix
+	 * @param limit The maximum number of values to return
+	 * @return The matching values, in alphabetical order
+	 */
+	public String[] find(String prefix, int limit) {
+		prefix = prefix.toLowerCase();
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid].compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int end = low;
+		while (end < keys.length && end - low < limit && keys[end].startsWith(prefix)) {
+			end++;
+		}
+		return Arrays.copyOfRange(values, low, end);
+	}
+	
+	/**
+	 * @return The number of values in this dictionary
+	 */
+	public int size() {
+		return values.length;
+	}
+	
+}
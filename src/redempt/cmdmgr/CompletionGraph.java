@@ -0,0 +1,425 @@
+package redempt.cmdmgr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import org.bukkit.command.CommandSender;
+
+import redempt.cmdmgr.Command.CommandArgument;
+import redempt.cmdmgr.Command.CommandArgumentType;
+
+/**
+ * The commands a sender may use, as the graph of nodes clients use to complete and check commands as they are typed.
+ * Subcommand names and the shape of arguments are in the graph, so clients can complete them without asking the
+ * server. Only arguments with a type provider are marked to ask the server for completions.
+ * <p>
+ * The root node has a literal node for each name of each command. Below a literal come the argument nodes of its
+ * command, one after another, and the literals of its subcommands. Subcommands named _ put their arguments and
+ * subcommands below their parent's literal, as they are matched at the same position. Aliases are literals with the
+ * same child nodes as the primary name. Commands the sender does not have permission for, or which are only for the
+ * other kind of sender, are left out with everything below them.
+ * <p>
+ * Int and double arguments use the integer and double parsers, multistring arguments a greedy string, and all others
+ * a single word string. Clients highlight input these parsers reject, but still send it, so the server's own parsing
+ * is unaffected.
+ */
+public class CompletionGraph {
+	
+	private static final int ROOT = 0;
+	private static final int LITERAL = 1;
+	private static final int ARGUMENT = 2;
+	private static final int WORD = 0;
+	private static final int GREEDY = 2;
+	private static final String ASK_SERVER = "minecraft:ask_server";
+	private static final int PROTOCOL_PARSER_IDS = 759;
+	private static final Map<String, Integer> PARSER_IDS = new HashMap<>();
+	
+	static {
+		// The brigadier parsers come first in the argument type registry, and have kept these IDs since 1.19
+		PARSER_IDS.put("brigadier:double", 2);
+		PARSER_IDS.put("brigadier:integer", 3);
+		PARSER_IDS.put("brigadier:string", 5);
+	}
+	
+	private List<Node> nodes = new ArrayList<>();
+	
+	private CompletionGraph() {
+	}
+	
+	/**
+	 * Builds the completion graph of all commands registered through CmdMgr for a sender.
+	 * @param sender The sender to build the graph for
+	 * @return The graph
+	 */
+	public static CompletionGraph build(CommandSender sender) {
+		return build(sender, Command.getRegisteredCommands());
+	}
+	
+	/**
+	 * Builds the completion graph of some commands for a sender. The commands do not need to be registered, so a
+	 * graph can be built and checked against its commands offline.
+	 * @param sender The sender to build the graph for
+	 * @param commands The top-level commands to include
+	 * @return The graph
+	 */
+	public static CompletionGraph build(CommandSender sender, List<Command> commands) {
+		Node root = new Node(ROOT, null);
+		for (Command command : commands) {
+			addLiterals(root, command, sender);
+		}
+		CompletionGraph graph = new CompletionGraph();
+		graph.add(root);
+		for (int i = 0; i < graph.nodes.size(); i++) {
+			for (Node child : graph.nodes.get(i).children.values()) {
+				graph.add(child);
+			}
+		}
+		return graph;
+	}
+	
+	/**
+	 * Adds a literal for each name of a command to a node, unless the sender cannot use it.
+	 */
+	private static void addLiterals(Node parent, Command command, CommandSender sender) {
+		if (!command.isUsableBy(sender)) {
+			return;
+		}
+		Node primary = null;
+		for (String name : command.getNames()) {
+			if (name.equals("_")) {
+				addCommand(parent, command, sender);
+				continue;
+			}
+			if (primary == null) {
+				primary = parent.add(new Node(LITERAL, name));
+				addCommand(primary, command, sender);
+				continue;
+			}
+			// The alias may also be the name of another command, so the children are added rather than shared
+			Node alias = parent.add(new Node(LITERAL, name));
+			for (Node child : primary.children.values()) {
+				alias.add(child);
+			}
+			alias.executable |= primary.executable;
+		}
+	}
+	
+	/**
+	 * Adds the arguments and subcommands of a command below the node its name was matched by.
+	 */
+	private static void addCommand(Node literal, Command command, CommandSender sender) {
+		Node node = literal;
+		for (CommandArgument arg : command.getArguments()) {
+			node = node.add(createArgument(arg));
+			if (arg.getType() == CommandArgumentType.MULTISTRING) {
+				break;
+			}
+		}
+		if (command.isRunnable() || command.getArguments().length == 0) {
+			node.executable = true;
+		}
+		for (Command child : command.getChildren()) {
+			addLiterals(literal, child, sender);
+		}
+	}
+	
+	private static Node createArgument(CommandArgument arg) {
+		Node node = new Node(ARGUMENT, arg.getName().equals("_") ? arg.getTypeName().toLowerCase() : arg.getName());
+		switch (arg.getType()) {
+			case INT:
+				node.parser = "brigadier:integer";
+				break;
+			case DOUBLE:
+				node.parser = "brigadier:double";
+				break;
+			case MULTISTRING:
+				node.parser = "brigadier:string";
+				node.properties = GREEDY;
+				break;
+			case CUSTOM:
+				node.parser = "brigadier:string";
+				node.properties = WORD;
+				node.suggestions = ASK_SERVER;
+				break;
+			default:
+				node.parser = "brigadier:string";
+				node.properties = WORD;
+				break;
+		}
+		return node;
+	}
+	
+	private void add(Node node) {
+		if (node.index == -1) {
+			node.index = nodes.size();
+			nodes.add(node);
+		}
+	}
+	
+	/**
+	 * @return The number of nodes in the graph, including the root
+	 */
+	public int size() {
+		return nodes.size();
+	}
+	
+	/**
+	 * Encodes the graph in the layout of the packet which declares commands to clients before protocol 759 (1.19),
+	 * with parsers written as their names.
+	 * @return The encoded graph
+	 * @see #toBytes(int)
+	 */
+	public byte[] toBytes() {
+		return toBytes((ToIntFunction<String>) null);
+	}
+	
+	/**
+	 * Encodes the graph in the layout of the packet which declares commands to clients of a protocol version. From
+	 * protocol 759 (1.19) parsers are written as their registry IDs, and before that as their names.
+	 * @param protocol The protocol version of the client
+	 * @return The encoded graph
+	 */
+	public byte[] toBytes(int protocol) {
+		return toBytes(protocol < PROTOCOL_PARSER_IDS ? null : (parser) -> PARSER_IDS.get(parser));
+	}
+	
+	/**
+	 * Encodes the graph in the layout of the packet which declares commands to clients from protocol 759 (1.19), with
+	 * parsers written as registry IDs given by a function. Use this if the IDs of the client's version differ from
+	 * those used by {@link #toBytes(int)}.
+	 * @param parserIds Gives the registry ID of a parser from its name, such as brigadier:integer. Parsers are
+	 * written as their names if this is null.
+	 * @return The encoded graph: the node count, the nodes and the index of the root node, which is always 0
+	 */
+	public byte[] toBytes(ToIntFunction<String> parserIds) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			writeVarInt(out, nodes.size());
+			for (Node node : nodes) {
+				out.writeByte(node.type | (node.executable ? 0x04 : 0) | (node.suggestions != null ? 0x10 : 0));
+				writeVarInt(out, node.children.size());
+				for (Node child : node.children.values()) {
+					writeVarInt(out, child.index);
+				}
+				if (node.type != ROOT) {
+					writeString(out, node.name);
+				}
+				if (node.type == ARGUMENT) {
+					if (parserIds == null) {
+						writeString(out, node.parser);
+					} else {
+						writeVarInt(out, parserIds.applyAsInt(node.parser));
+					}
+					if (node.properties != -1) {
+						writeVarInt(out, node.properties);
+					} else {
+						// Number parsers have a flags byte saying whether a minimum and maximum follow
+						out.writeByte(0);
+					}
+				}
+				if (node.suggestions != null) {
+					writeString(out, node.suggestions);
+				}
+			}
+			writeVarInt(out, 0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Describes the graph as JSON, with the nodes in the same order as {@link #toBytes()} and children given by index.
+	 * @return The JSON
+	 */
+	public String toJson() {
+		StringBuilder builder = new StringBuilder("{\"root\":0,\"nodes\":[");
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			builder.append(i == 0 ? "" : ",").append("{\"type\":\"").append(node.type == ROOT ? "root" : node.type == LITERAL ? "literal" : "argument").append('"');
+			if (node.type != ROOT) {
+				builder.append(",\"name\":");
+				appendString(builder, node.name);
+			}
+			if (node.type == ARGUMENT) {
+				builder.append(",\"parser\":\"").append(node.parser).append('"');
+				if (node.properties != -1) {
+					builder.append(",\"properties\":\"").append(node.properties == GREEDY ? "greedy" : "word").append('"');
+				}
+			}
+			if (node.suggestions != null) {
+				builder.append(",\"suggestions\":\"").append(node.suggestions).append('"');
+			}
+			builder.append(",\"executable\":").append(node.executable).append(",\"children\":[");
+			boolean first = true;
+			for (Node child : node.children.values()) {
+				builder.append(first ? "" : ",").append(child.index);
+				first = false;
+			}
+			builder.append("]}");
+		}
+		return builder.append("]}").toString();
+	}
+	
+	/**
+	 * Gets the completions a client would find in this graph for a command line without asking the server, which
+	 * can be compared with {@link Command#tabComplete(CommandSender, String[])} to check the graph.
+	 * @param line The command line without the leading slash, the last word being the one to complete
+	 * @return The names of the literals which could come next and start with the last word. Arguments completed by
+	 * the server are not included.
+	 */
+	public List<String> complete(String line) {
+		String[] words = line.split(" ", -1);
+		List<Node> current = new ArrayList<>();
+		current.add(nodes.get(0));
+		for (int i = 0; i < words.length - 1; i++) {
+			List<Node> next = new ArrayList<>();
+			for (Node node : current) {
+				if (node.properties == GREEDY) {
+					next.add(node);
+					continue;
+				}
+				for (Node child : node.children.values()) {
+					if (child.matches(words[i]) && !next.contains(child)) {
+						next.add(child);
+					}
+				}
+			}
+			current = next;
+		}
+		String prefix = words[words.length - 1].toLowerCase();
+		List<String> completions = new ArrayList<>();
+		for (Node node : current) {
+			if (node.properties == GREEDY) {
+				continue;
+			}
+			for (Node child : node.children.values()) {
+				if (child.type == LITERAL && child.name.toLowerCase().startsWith(prefix) && !completions.contains(child.name)) {
+					completions.add(child.name);
+				}
+			}
+		}
+		return completions;
+	}
+	
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	private static void appendString(StringBuilder builder, String string) {
+		builder.append('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < ' ') {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+	
+	private static class Node {
+		
+		private int type;
+		private String name;
+		private String parser = null;
+		private int properties = -1;
+		private String suggestions = null;
+		private boolean executable = false;
+		private Map<String, Node> children = new LinkedHashMap<>();
+		private int index = -1;
+		
+		private Node(int type, String name) {
+			this.type = type;
+			this.name = name;
+		}
+		
+		/**
+		 * Adds a child, or finds the one which is already there if it is the same kind of node. Children are keyed by
+		 * name, so an argument whose name is taken by a different node is added as a copy renamed with a number after
+		 * it, and a literal always keeps its name, moving an argument in its way to a renamed copy. Nodes are copied
+		 * rather than renamed, as they may also be children of other nodes, such as the literals of aliases.
+		 * @return The child which is in the graph
+		 */
+		private Node add(Node child) {
+			Node existing = children.get(child.name);
+			if (existing != null && existing.type == ARGUMENT && child.type == LITERAL) {
+				children.remove(existing.name);
+				children.put(child.name, child);
+				add(existing);
+				return child;
+			}
+			Node renamed = child;
+			for (int i = 2; ; i++) {
+				existing = children.get(renamed.name);
+				if (existing == null) {
+					children.put(renamed.name, renamed);
+					return renamed;
+				}
+				if (existing.isSameAs(renamed)) {
+					return existing;
+				}
+				renamed = child.copy(child.name + i);
+			}
+		}
+		
+		/**
+		 * @return A node like this one with another name, with the same children
+		 */
+		private Node copy(String name) {
+			Node copy = new Node(type, name);
+			copy.parser = parser;
+			copy.properties = properties;
+			copy.suggestions = suggestions;
+			copy.executable = executable;
+			copy.children = new LinkedHashMap<>(children);
+			return copy;
+		}
+		
+		private boolean isSameAs(Node other) {
+			return type == other.type && name.equals(other.name) && properties == other.properties && (parser == null ? other.parser == null : parser.equals(other.parser))
+					&& (suggestions == null ? other.suggestions == null : suggestions.equals(other.suggestions));
+		}
+		
+		/**
+		 * @return Whether a client would accept a word for this node
+		 */
+		private boolean matches(String word) {
+			if (type == LITERAL) {
+				return name.equals(word);
+			}
+			switch (parser) {
+				case "brigadier:integer":
+					return ArgumentParser.parseInt(word) != null;
+				case "brigadier:double":
+					return ArgumentParser.parseDouble(word) != null;
+				default:
+					return !word.isEmpty();
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,126 @@
+package redempt.cmdmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A size-bounded map which evicts the least recently used entry when full, and optionally expires entries a fixed
+ * time after they were stored. Counts hits and misses.
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class ExpiringCache<K, V> {
+	
+	private final long ttl;
+	private final LinkedHashMap<K, Timed<V>> map;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	/**
+	 * @param ttl How long entries stay valid after being stored, or 0 for no expiry
+	 * @param unit The unit of the ttl
+	 * @param maxSize The maximum number of entries
+	 */
+	ExpiringCache(long ttl, TimeUnit unit, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		this.ttl = unit.toNanos(ttl);
+		map = new LinkedHashMap<K, Timed<V>>(16, 0.75f, true) {
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> eldest) {
+				return size() > maxSize;
+			}
+			
+		};
+	}
+	
+	/**
+	 * Gets a value, counting a hit or a miss.
+	 * @param key The key
+	 * @return The value, or null if it is absent or has expired
+	 */
+	synchronized V get(K key) {
+		Timed<V> entry = map.get(key);
+		if (entry != null && ttl != 0 && System.nanoTime() - entry.time > ttl) {
+			map.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.value;
+	}
+	
+	/**
+	 * Gets a value, computing and storing it if it is absent or has expired. The loader is called without holding
+	 * the cache's lock, so a slow loader does not block other keys.
+	 * @param key The key
+	 * @param loader Computes the value for a missing key
+	 * @return The value
+	 */
+	V get(K key, Function<K, V> loader) {
+		V value = get(key);
+		if (value == null) {
+			value = loader.apply(key);
+			if (value != null) {
+				put(key, value);
+			}
+		}
+		return value;
+	}
+	
+	synchronized void put(K key, V value) {
+		map.put(key, new Timed<>(value, System.nanoTime()));
+	}
+	
+	synchronized void invalidate(K key) {
+		map.remove(key);
+	}
+	
+	synchronized void invalidateIf(Predicate<K> predicate) {
+		Iterator<K> iter = map.keySet().iterator();
+		while (iter.hasNext()) {
+			if (predicate.test(iter.next())) {
+				iter.remove();
+			}
+		}
+	}
+	
+	synchronized void invalidateAll() {
+		map.clear();
+	}
+	
+	synchronized int size() {
+		return map.size();
+	}
+	
+	long getHits() {
+		return hits.sum();
+	}
+	
+	long getMisses() {
+		return misses.sum();
+	}
+	
+	private static class Timed<V> {
+		
+		private final V value;
+		private final long time;
+		
+		private Timed(V value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+		
+	}
+	
+}
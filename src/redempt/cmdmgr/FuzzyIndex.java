@@ -0,0 +1,130 @@
+package redempt.cmdmgr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BK-tree mapping Strings to values, which finds the keys within an edit distance of a query without comparing the
+ * query to every key. Each node keeps its children by their distance to it, and the triangle inequality rules out
+ * every child whose distance is too far from the query's distance to the node. Keys are compared ignoring case.
+ * @param <T> The type of the values
+ */
+class FuzzyIndex<T> {
+	
+	private Node<T> root = null;
+	private int size = 0;
+	
+	/**
+	 * Adds a key. A key which is already present gets another value rather than replacing the existing one.
+	 * @param key The key
+	 * @param value The value
+	 */
+	void add(String key, T value) {
+		key = key.toLowerCase();
+		size++;
+		if (root == null) {
+			root = new Node<>(key, value);
+			return;
+		}
+		Node<T> node = root;
+		while (true) {
+			int distance = distance(key, node.key);
+			Node<T> child = node.children == null ? null : node.children.get(distance);
+			if (child == null) {
+				if (node.children == null) {
+					node.children = new HashMap<>();
+				}
+				node.children.put(distance, new Node<>(key, value));
+				return;
+			}
+			node = child;
+		}
+	}
+	
+	/**
+	 * Finds the values whose keys are within a distance of a query, closest first. Values with the same distance are
+	 * in no particular order.
+	 * @param query The query
+	 * @param maxDistance The largest edit distance to accept
+	 * @return The matching values
+	 */
+	List<T> search(String query, int maxDistance) {
+		query = query.toLowerCase();
+		List<List<T>> byDistance = new ArrayList<>();
+		for (int i = 0; i <= maxDistance; i++) {
+			byDistance.add(new ArrayList<>());
+		}
+		Deque<Node<T>> queue = new ArrayDeque<>();
+		if (root != null) {
+			queue.add(root);
+		}
+		while (!queue.isEmpty()) {
+			Node<T> node = queue.poll();
+			int distance = distance(query, node.key);
+			if (distance <= maxDistance) {
+				byDistance.get(distance).add(node.value);
+			}
+			if (node.children == null) {
+				continue;
+			}
+			for (Map.Entry<Integer, Node<T>> entry : node.children.entrySet()) {
+				if (Math.abs(entry.getKey() - distance) <= maxDistance) {
+					queue.add(entry.getValue());
+				}
+			}
+		}
+		List<T> found = new ArrayList<>();
+		for (List<T> values : byDistance) {
+			found.addAll(values);
+		}
+		return found;
+	}
+	
+	/**
+	 * @return The number of keys in this index
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * The Levenshtein distance between two Strings, using two rows of the table.
+	 */
+	static int distance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			char c = a.charAt(i - 1);
+			for (int j = 1; j <= b.length(); j++) {
+				int substitute = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+				current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+	
+	private static class Node<T> {
+		
+		private String key;
+		private T value;
+		private Map<Integer, Node<T>> children = null;
+		
+		private Node(String key, T value) {
+			this.key = key;
+			this.value = value;
+		}
+		
+	}
+	
+}
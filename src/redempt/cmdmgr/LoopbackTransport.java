@@ -0,0 +1,38 @@
+package redempt.cmdmgr;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transport which delivers every batch back to this server, whatever server it is addressed to, and runs it as if
+ * this server had that name. Commands still go through encoding, batching and decoding as they would between servers,
+ * so this can be used to test remote commands without a network.
+ */
+public class LoopbackTransport implements CommandTransport {
+	
+	private AtomicLong batches = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	
+	@Override
+	public CompletableFuture<byte[]> send(String server, byte[] payload) {
+		batches.incrementAndGet();
+		bytes.addAndGet(payload.length);
+		return RemoteCommands.receive(Arrays.copyOf(payload, payload.length), server);
+	}
+	
+	/**
+	 * @return The number of batches sent through this transport
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+	
+	/**
+	 * @return The total size in bytes of the batches sent through this transport
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+}
@@ -0,0 +1,232 @@
+package redempt.cmdmgr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation counts and latencies for a command or a type provider. For commands, calls are hook invocations and
+ * invalid calls are arguments which could not be used; for type providers, calls are conversions and invalid calls
+ * are conversions which returned null. Latencies are kept in power of two buckets, so percentiles are accurate to
+ * within a factor of two and never above the maximum.
+ */
+public class Metrics {
+	
+	private static volatile boolean enabled = true;
+	private static volatile long slowThreshold = TimeUnit.MILLISECONDS.toNanos(50);
+	
+	private LongAdder calls = new LongAdder();
+	private LongAdder errors = new LongAdder();
+	private LongAdder invalid = new LongAdder();
+	private LongAdder totalNanos = new LongAdder();
+	private LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private AtomicLongArray latencies = new AtomicLongArray(64);
+	private LongAdder completions = new LongAdder();
+	private AtomicLongArray completionLatencies = new AtomicLongArray(64);
+	
+	/**
+	 * Sets whether metrics are collected. They are collected by default.
+	 * @param enabled Whether to collect metrics
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+	
+	/**
+	 * @return Whether metrics are collected
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Sets how long a hook can take before it is logged to console as slow, while metrics are enabled. The default is 50 milliseconds.
+	 * @param threshold The threshold, or 0 to never log slow hooks
+	 * @param unit The unit of the threshold
+	 */
+	public static void setSlowThreshold(long threshold, TimeUnit unit) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Threshold cannot be negative");
+		}
+		slowThreshold = unit.toNanos(threshold);
+	}
+	
+	static boolean isSlow(long nanos) {
+		long threshold = slowThreshold;
+		return threshold > 0 && nanos >= threshold;
+	}
+	
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * @return The time taken since the call started, or 0 if metrics were disabled when it started
+	 */
+	long recordCall(long start, boolean error) {
+		if (start == 0) {
+			return 0;
+		}
+		long nanos = System.nanoTime() - start;
+		calls.increment();
+		if (error) {
+			errors.increment();
+		}
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		latencies.incrementAndGet(bucket(nanos));
+		return nanos;
+	}
+	
+	void recordInvalid() {
+		if (enabled) {
+			invalid.increment();
+		}
+	}
+	
+	void recordCompletion(long start) {
+		if (start == 0) {
+			return;
+		}
+		completions.increment();
+		completionLatencies.incrementAndGet(bucket(System.nanoTime() - start));
+	}
+	
+	private static int bucket(long nanos) {
+		return 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+	}
+	
+	/**
+	 * Resets all counts and latencies to zero.
+	 */
+	public void reset() {
+		calls.reset();
+		errors.reset();
+		invalid.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		completions.reset();
+		for (int i = 0; i < 64; i++) {
+			latencies.set(i, 0);
+			completionLatencies.set(i, 0);
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of these metrics. Counters are read one at a time, so a snapshot taken while calls are in
+	 * progress may be off by those calls.
+	 * @param name The name to label the snapshot with
+	 * @return The snapshot
+	 */
+	public Snapshot snapshot(String name) {
+		long max = maxNanos.get();
+		long[] percentiles = percentiles(latencies);
+		percentiles[0] = Math.min(percentiles[0], max);
+		percentiles[1] = Math.min(percentiles[1], max);
+		return new Snapshot(name, calls.sum(), errors.sum(), invalid.sum(), totalNanos.sum(), max, percentiles, completions.sum(), percentiles(completionLatencies)[1]);
+	}
+	
+	/**
+	 * @return The 50th and 99th percentiles, as the upper bound of the bucket they fall in
+	 */
+	private static long[] percentiles(AtomicLongArray buckets) {
+		long[] counts = new long[64];
+		long total = 0;
+		for (int i = 0; i < 64; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		long[] percentiles = new long[2];
+		if (total == 0) {
+			return percentiles;
+		}
+		long p50 = (total + 1) / 2;
+		long p99 = total - total / 100;
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += counts[i];
+			long bound = i == 63 ? Long.MAX_VALUE : (2L << i) - 1;
+			if (percentiles[0] == 0 && seen >= p50) {
+				percentiles[0] = bound;
+			}
+			if (seen >= p99) {
+				percentiles[1] = bound;
+				break;
+			}
+		}
+		return percentiles;
+	}
+	
+	/**
+	 * An immutable view of the metrics of a command or type provider at some point in time.
+	 */
+	public static class Snapshot {
+		
+		private String name;
+		private long calls;
+		private long errors;
+		private long invalid;
+		private long totalNanos;
+		private long maxNanos;
+		private long p50Nanos;
+		private long p99Nanos;
+		private long completions;
+		private long completionP99Nanos;
+		
+		private Snapshot(String name, long calls, long errors, long invalid, long totalNanos, long maxNanos, long[] percentiles, long completions, long completionP99Nanos) {
+			this.name = name;
+			this.calls = calls;
+			this.errors = errors;
+			this.invalid = invalid;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.p50Nanos = percentiles[0];
+			this.p99Nanos = percentiles[1];
+			this.completions = completions;
+			this.completionP99Nanos = completionP99Nanos;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public long getCalls() {
+			return calls;
+		}
+		
+		public long getErrors() {
+			return errors;
+		}
+		
+		public long getInvalid() {
+			return invalid;
+		}
+		
+		public long getMeanNanos() {
+			return calls == 0 ? 0 : totalNanos / calls;
+		}
+		
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+		
+		public long getP50Nanos() {
+			return p50Nanos;
+		}
+		
+		public long getP99Nanos() {
+			return p99Nanos;
+		}
+		
+		public long getCompletions() {
+			return completions;
+		}
+		
+		public long getCompletionP99Nanos() {
+			return completionP99Nanos;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,180 @@
+package redempt.cmdmgr;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Caches which command permissions each player has, so that running commands, tab completing and showing help do not
+ * ask the permission plugin again for every command visited. Each permission used by a command is given a number,
+ * and each player's decisions are kept as a bit set over those numbers. Other senders are always asked directly.
+ * <p>
+ * Decisions are forgotten after two ticks by default, so a single command, tab request or help page asks once per
+ * permission, while changed permissions apply almost at once. They are also forgotten when a player joins, quits or
+ * changes world once {@link #registerListener(Plugin)} has been called. Servers which call {@link #invalidate(Player)}
+ * whenever a player's permissions change, for example from their permission plugin's recalculation event, can keep
+ * decisions for longer with {@link #setExpiry(long, TimeUnit)}.
+ */
+public class PermissionCache {
+	
+	private static Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private static AtomicInteger nextId = new AtomicInteger();
+	private static final int MAX_PLAYERS = 4096;
+	private static Map<UUID, Decisions> players = new ConcurrentHashMap<>();
+	private static volatile long expiry = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	private PermissionCache() {
+	}
+	
+	/**
+	 * Sets how long permission decisions are kept. The default is 100 milliseconds, two ticks. This clears the cache.
+	 * @param time How long to keep decisions, or 0 to keep them until they are invalidated
+	 * @param unit The unit of the time
+	 */
+	public static void setExpiry(long time, TimeUnit unit) {
+		if (time < 0) {
+			throw new IllegalArgumentException("Expiry cannot be negative");
+		}
+		expiry = time == 0 ? Long.MAX_VALUE : unit.toNanos(time);
+		players.clear();
+	}
+	
+	/**
+	 * Forgets the permission decisions for a player, so they are checked again the next time they are needed.
+	 * @param player The player whose permissions changed
+	 */
+	public static void invalidate(Player player) {
+		players.remove(player.getUniqueId());
+		Command.invalidateTabSession(player);
+	}
+	
+	/**
+	 * Forgets the permission decisions for a sender. Only players' decisions are cached, so this only ends the tab
+	 * completion session of other senders.
+	 * @param sender The sender whose permissions changed
+	 */
+	public static void invalidate(CommandSender sender) {
+		if (sender instanceof Player) {
+			invalidate((Player) sender);
+			return;
+		}
+		Command.invalidateTabSession(sender);
+	}
+	
+	/**
+	 * Forgets the permission decisions for all senders.
+	 */
+	public static void invalidateAll() {
+		players.clear();
+		Command.invalidateTabSessions();
+	}
+	
+	/**
+	 * Registers a listener which forgets a player's decisions when they join, quit or change world. CmdMgr does this
+	 * itself when it is installed as a plugin; call it if you shade CmdMgr into your own plugin.
+	 * @param plugin The plugin to register the listener for
+	 */
+	public static void registerListener(Plugin plugin) {
+		Bukkit.getPluginManager().registerEvents(new InvalidationListener(), plugin);
+	}
+	
+	/**
+	 * Gets the number of a permission, which is the same for every command using it.
+	 */
+	static int getId(String permission) {
+		return ids.computeIfAbsent(permission, (k) -> nextId.getAndIncrement());
+	}
+	
+	/**
+	 * Checks whether a sender has a permission, using the cached decision if there is one.
+	 * @param id The number of the permission, from {@link #getId(String)}
+	 */
+	static boolean hasPermission(CommandSender sender, int id, String permission) {
+		if (!(sender instanceof Player)) {
+			return sender.hasPermission(permission);
+		}
+		UUID key = ((Player) sender).getUniqueId();
+		long now = System.nanoTime();
+		Decisions decisions = players.get(key);
+		if (decisions == null || decisions.isExpired(now)) {
+			if (players.size() >= MAX_PLAYERS) {
+				players.values().removeIf((d) -> d.isExpired(now));
+			}
+			decisions = new Decisions(now);
+			players.put(key, decisions);
+		}
+		return decisions.hasPermission(sender, id, permission);
+	}
+	
+	/**
+	 * The decisions made for one player. Words at even indexes mark which permissions are known, and the word after
+	 * each marks which of those are granted. The array is replaced rather than modified, so reads need no lock.
+	 */
+	private static class Decisions {
+		
+		private final long created;
+		private volatile long[] bits = new long[0];
+		
+		private Decisions(long created) {
+			this.created = created;
+		}
+		
+		private boolean isExpired(long now) {
+			long expiry = PermissionCache.expiry;
+			return expiry != Long.MAX_VALUE && now - created > expiry;
+		}
+		
+		private boolean hasPermission(CommandSender sender, int id, String permission) {
+			int word = (id >>> 6) * 2;
+			long mask = 1L << id;
+			long[] bits = this.bits;
+			if (word < bits.length && (bits[word] & mask) != 0) {
+				return (bits[word + 1] & mask) != 0;
+			}
+			boolean granted = sender.hasPermission(permission);
+			synchronized (this) {
+				long[] copy = Arrays.copyOf(this.bits, Math.max(this.bits.length, word + 2));
+				copy[word] |= mask;
+				if (granted) {
+					copy[word + 1] |= mask;
+				}
+				this.bits = copy;
+			}
+			return granted;
+		}
+		
+	}
+	
+	private static class InvalidationListener implements Listener {
+		
+		@EventHandler
+		public void onJoin(PlayerJoinEvent e) {
+			invalidate(e.getPlayer());
+		}
+		
+		@EventHandler
+		public void onQuit(PlayerQuitEvent e) {
+			invalidate(e.getPlayer());
+		}
+		
+		@EventHandler
+		public void onChangeWorld(PlayerChangedWorldEvent e) {
+			invalidate(e.getPlayer());
+		}
+		
+	}
+	
+}
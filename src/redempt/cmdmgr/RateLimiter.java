@@ -0,0 +1,194 @@
+package redempt.cmdmgr;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how often each sender can use a command, with a token bucket per sender. A bucket is stored as the time at
+ * which it will be full again, so taking a token is a single compare-and-set, and buckets which have refilled hold no
+ * information and are dropped. Does not depend on Bukkit, so that the command file parser can use it at compile time.
+ */
+class RateLimiter {
+	
+	private static final int MAX_ENTRIES = 10000;
+	private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+	private static final long FULL_SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	
+	private long interval;
+	private long burst;
+	private int maxEntries;
+	private LongSupplier clock;
+	private ConcurrentHashMap<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+	private AtomicLong lastSweep;
+	
+	/**
+	 * @param tokens The number of uses allowed in each period
+	 * @param period The period in nanoseconds
+	 * @param maxEntries The most senders to track at once
+	 */
+	RateLimiter(int tokens, long period, int maxEntries) {
+		this(tokens, period, maxEntries, System::nanoTime);
+	}
+	
+	/**
+	 * @param tokens The number of uses allowed in each period
+	 * @param period The period in nanoseconds
+	 * @param maxEntries The most senders to track at once
+	 * @param clock The source of the current time in nanoseconds, like {@link System#nanoTime()}
+	 */
+	RateLimiter(int tokens, long period, int maxEntries, LongSupplier clock) {
+		interval = period / tokens;
+		burst = interval * (tokens - 1);
+		this.maxEntries = maxEntries;
+		this.clock = clock;
+		lastSweep = new AtomicLong(clock.getAsLong());
+	}
+	
+	/**
+	 * @return Whether another limiter allows uses at the same rate and in the same bursts, so its buckets can be kept
+	 */
+	boolean hasSameRate(RateLimiter other) {
+		return interval == other.interval && burst == other.burst;
+	}
+	
+	/**
+	 * Creates a limiter from the value of a cooldown directive, like 5s.
+	 * @return The limiter, or null if the value is not a valid duration
+	 */
+	static RateLimiter cooldown(String value) {
+		long period = parseDuration(value);
+		return period <= 0 ? null : new RateLimiter(1, period, MAX_ENTRIES);
+	}
+	
+	/**
+	 * Creates a limiter from the value of a ratelimit directive, like 10/min or 3/5s.
+	 * @return The limiter, or null if the value is not a valid rate
+	 */
+	static RateLimiter rate(String value) {
+		int split = value.indexOf('/');
+		if (split == -1) {
+			return null;
+		}
+		Integer tokens = ArgumentParser.parseInt(value.substring(0, split).trim());
+		long period = parseDuration(value.substring(split + 1).trim());
+		if (tokens == null || tokens < 1 || period <= 0 || period / tokens == 0) {
+			return null;
+		}
+		return new RateLimiter(tokens, period, MAX_ENTRIES);
+	}
+	
+	/**
+	 * Parses a duration like 500ms, 5s, 1.5m or 2h. The number defaults to 1 and the unit to seconds, but not both.
+	 * @return The duration in nanoseconds, or -1 if it is malformed
+	 */
+	static long parseDuration(String value) {
+		int unitStart = 0;
+		while (unitStart < value.length() && (Character.isDigit(value.charAt(unitStart)) || value.charAt(unitStart) == '.')) {
+			unitStart++;
+		}
+		String unitName = value.substring(unitStart).trim().toLowerCase();
+		if (unitStart == 0 && unitName.isEmpty()) {
+			return -1;
+		}
+		Double amount = unitStart == 0 ? Double.valueOf(1) : ArgumentParser.parseDouble(value.substring(0, unitStart));
+		if (amount == null) {
+			return -1;
+		}
+		double unit;
+		switch (unitName) {
+			case "ms":
+				unit = 1e6;
+				break;
+			case "":
+			case "s":
+			case "sec":
+				unit = 1e9;
+				break;
+			case "m":
+			case "min":
+				unit = 60e9;
+				break;
+			case "h":
+				unit = 3600e9;
+				break;
+			default:
+				return -1;
+		}
+		return (long) (amount * unit);
+	}
+	
+	/**
+	 * Takes a token from a sender's bucket if there is one.
+	 * @param key The key of the sender
+	 * @return 0 if a token was taken, otherwise how many nanoseconds until one is available
+	 */
+	long acquire(Object key) {
+		long now = clock.getAsLong();
+		sweep(now);
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null) {
+			if (buckets.size() >= maxEntries) {
+				evict(now);
+			}
+			bucket = buckets.computeIfAbsent(key, (k) -> new AtomicLong(now));
+		}
+		while (true) {
+			long full = bucket.get();
+			long available = full - burst;
+			if (available - now > 0) {
+				return available - now;
+			}
+			if (bucket.compareAndSet(full, (full - now > 0 ? full : now) + interval)) {
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * Gives back a token taken by {@link #acquire(Object)} for a use which did not happen.
+	 * @param key The key of the sender
+	 */
+	void release(Object key) {
+		AtomicLong bucket = buckets.get(key);
+		if (bucket != null) {
+			bucket.addAndGet(-interval);
+		}
+	}
+	
+	/**
+	 * Makes room for a new sender once the most senders are tracked. Buckets which have refilled are dropped, and if
+	 * there are none, the bucket which will refill soonest is dropped, so its sender waits less than they should have
+	 * rather than new senders not being limited at all.
+	 */
+	private void evict(long now) {
+		Map.Entry<Object, AtomicLong> soonest = null;
+		for (Map.Entry<Object, AtomicLong> entry : buckets.entrySet()) {
+			if (entry.getValue().get() - now <= 0) {
+				buckets.remove(entry.getKey(), entry.getValue());
+				return;
+			}
+			if (soonest == null || entry.getValue().get() - soonest.getValue().get() < 0) {
+				soonest = entry;
+			}
+		}
+		if (soonest != null) {
+			buckets.remove(soonest.getKey(), soonest.getValue());
+		}
+	}
+	
+	/**
+	 * Drops the buckets which have refilled. Runs at most once a minute, or once a second while the limiter is full.
+	 */
+	private void sweep(long now) {
+		long last = lastSweep.get();
+		long wait = buckets.size() >= maxEntries ? FULL_SWEEP_INTERVAL : SWEEP_INTERVAL;
+		if (now - last < wait || !lastSweep.compareAndSet(last, now)) {
+			return;
+		}
+		buckets.values().removeIf((bucket) -> bucket.get() - now <= 0);
+	}
+	
+}
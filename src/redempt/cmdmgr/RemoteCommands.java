@@ -0,0 +1,393 @@
+package redempt.cmdmgr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.permissions.Permission;
+
+/**
+ * Forwards commands marked with the remote directive to the server named in it, and runs commands forwarded from
+ * other servers. Permissions, sender restrictions, limits and argument conversion are all checked on the server the
+ * command was typed on; the position of the command in its tree, its hook name, the sender, the permissions of the
+ * command the sender was found to have and the arguments as typed are sent. The receiving server only runs commands
+ * marked remote with its own name, checks their permissions again, converts the arguments again with its own type
+ * providers and runs the hook.
+ * <p>
+ * Commands forwarded in the same tick are sent to each server as one batch. The hook on the receiving server is given
+ * a sender with the name of the original sender, which sends messages back to them. It is not a player and not op, and
+ * only has the permissions which were sent, so hooks of remote commands must take a CommandSender. Other calls are
+ * passed to the console. Both servers must load the same command file, and the transport must only accept batches
+ * from servers of the network.
+ */
+public class RemoteCommands {
+	
+	private static final int VERSION = 2;
+	
+	private static volatile CommandTransport transport = null;
+	private static volatile String serverName = null;
+	private static volatile int maxBatchSize = 64;
+	private static Map<String, List<Invocation>> outbound = new HashMap<>();
+	
+	private RemoteCommands() {
+	}
+	
+	/**
+	 * Sets the transport commands are forwarded with. Commands marked remote fail until this is set.
+	 * @param transport The transport
+	 */
+	public static void setTransport(CommandTransport transport) {
+		RemoteCommands.transport = transport;
+	}
+	
+	/**
+	 * Sets the name of this server, so that commands marked remote with this name are run here rather than forwarded.
+	 * @param name The name of this server
+	 */
+	public static void setServerName(String name) {
+		serverName = name;
+	}
+	
+	/**
+	 * Sets the most commands sent to a server in one batch. A batch is sent once it is full, or at the end of the tick.
+	 * The default is 64.
+	 * @param size The maximum batch size
+	 */
+	public static void setMaxBatchSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		maxBatchSize = size;
+	}
+	
+	/**
+	 * Sends all waiting commands now instead of at the end of the tick.
+	 */
+	public static void flush() {
+		List<String> servers;
+		synchronized (outbound) {
+			servers = new ArrayList<>(outbound.keySet());
+		}
+		for (String server : servers) {
+			flush(server);
+		}
+	}
+	
+	/**
+	 * Runs a batch of commands forwarded from another server. Transports call this with the bytes they received.
+	 * @param payload The batch, as passed to {@link CommandTransport#send(String, byte[])} on the other server
+	 * @return A future completed with the reply to send back once all of the commands have run
+	 */
+	public static CompletableFuture<byte[]> receive(byte[] payload) {
+		return receive(payload, serverName);
+	}
+	
+	/**
+	 * Runs a batch of commands forwarded from another server as if this server had the given name.
+	 * @param server The name of the server the batch was sent to, which the commands must be marked remote with
+	 */
+	static CompletableFuture<byte[]> receive(byte[] payload, String server) {
+		List<CompletableFuture<Command.CommandResult>> results = new ArrayList<>();
+		List<List<String>> messages = new ArrayList<>();
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			int version = readVarInt(in);
+			if (version != VERSION) {
+				throw new IOException("Unsupported remote command version " + version);
+			}
+			int count = readVarInt(in);
+			for (int i = 0; i < count; i++) {
+				String root = in.readUTF();
+				int[] path = new int[readVarInt(in)];
+				for (int j = 0; j < path.length; j++) {
+					path[j] = readVarInt(in);
+				}
+				String hook = in.readUTF();
+				String name = in.readUTF();
+				UUID id = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+				Set<String> permissions = new HashSet<>();
+				for (int j = readVarInt(in); j > 0; j--) {
+					permissions.add(in.readUTF());
+				}
+				String[] args = new String[readVarInt(in)];
+				for (int j = 0; j < args.length; j++) {
+					args[j] = in.readUTF();
+				}
+				List<String> sent = Collections.synchronizedList(new ArrayList<>());
+				messages.add(sent);
+				results.add(Command.runRemote(server, root, path, hook.isEmpty() ? null : hook, createSender(name, id, permissions, sent), args));
+			}
+		} catch (IOException e) {
+			CompletableFuture<byte[]> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply((v) -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				writeVarInt(out, results.size());
+				for (int i = 0; i < results.size(); i++) {
+					writeVarInt(out, results.get(i).join().ordinal());
+					List<String> sent = messages.get(i);
+					synchronized (sent) {
+						writeVarInt(out, sent.size());
+						for (String message : sent) {
+							out.writeUTF(message);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes.toByteArray();
+		});
+	}
+	
+	/**
+	 * @return Whether a command marked remote with the given server name should run on this server
+	 */
+	static boolean isLocal(String server) {
+		return server.equals(serverName);
+	}
+	
+	/**
+	 * Queues a command to be sent to another server.
+	 * @param path The index of each command in its parent's children, from the top-level command down
+	 * @param permissions The permissions of the command and its parents which the sender has
+	 * @param args The arguments of the command being run, as typed
+	 * @return A future completed with the result on the other server and the messages the hook sent
+	 */
+	static CompletableFuture<Result> forward(String server, String root, int[] path, String hook, CommandSender sender, List<String> permissions, String[] args) {
+		Invocation invocation = new Invocation(root, path, hook, sender, permissions, args);
+		boolean first;
+		boolean full;
+		synchronized (outbound) {
+			List<Invocation> batch = outbound.computeIfAbsent(server, (k) -> new ArrayList<>());
+			first = batch.isEmpty();
+			batch.add(invocation);
+			full = batch.size() >= maxBatchSize;
+		}
+		if (full) {
+			flush(server);
+		} else if (first) {
+			try {
+				AsyncCommands.runLater(() -> flush(server));
+			} catch (IllegalStateException e) {
+				// No plugin to schedule with, so send right away
+				flush(server);
+			}
+		}
+		return invocation.future;
+	}
+	
+	private static void flush(String server) {
+		List<Invocation> batch;
+		synchronized (outbound) {
+			batch = outbound.remove(server);
+		}
+		if (batch == null || batch.isEmpty()) {
+			return;
+		}
+		CommandTransport transport = RemoteCommands.transport;
+		if (transport == null) {
+			fail(batch, new IllegalStateException("No transport set to forward commands with, see RemoteCommands#setTransport"));
+			return;
+		}
+		CompletableFuture<byte[]> reply;
+		try {
+			reply = transport.send(server, encode(batch));
+		} catch (IOException | RuntimeException e) {
+			fail(batch, e);
+			return;
+		}
+		reply.whenComplete((bytes, error) -> {
+			if (error != null) {
+				fail(batch, error);
+				return;
+			}
+			try {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+				int count = readVarInt(in);
+				if (count != batch.size()) {
+					throw new IOException("Expected " + batch.size() + " results from " + server + " but got " + count);
+				}
+				Command.CommandResult[] values = Command.CommandResult.values();
+				for (Invocation invocation : batch) {
+					Command.CommandResult result = values[readVarInt(in)];
+					String[] messages = new String[readVarInt(in)];
+					for (int i = 0; i < messages.length; i++) {
+						messages[i] = in.readUTF();
+					}
+					invocation.future.complete(new Result(result, messages));
+				}
+			} catch (IOException | RuntimeException e) {
+				fail(batch, e);
+			}
+		});
+	}
+	
+	private static void fail(List<Invocation> batch, Throwable error) {
+		for (Invocation invocation : batch) {
+			invocation.future.completeExceptionally(error);
+		}
+	}
+	
+	private static byte[] encode(List<Invocation> batch) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeVarInt(out, VERSION);
+		writeVarInt(out, batch.size());
+		for (Invocation invocation : batch) {
+			out.writeUTF(invocation.root);
+			writeVarInt(out, invocation.path.length);
+			for (int index : invocation.path) {
+				writeVarInt(out, index);
+			}
+			out.writeUTF(invocation.hook == null ? "" : invocation.hook);
+			out.writeUTF(invocation.sender);
+			out.writeBoolean(invocation.id != null);
+			if (invocation.id != null) {
+				out.writeLong(invocation.id.getMostSignificantBits());
+				out.writeLong(invocation.id.getLeastSignificantBits());
+			}
+			writeVarInt(out, invocation.permissions.size());
+			for (String permission : invocation.permissions) {
+				out.writeUTF(permission);
+			}
+			writeVarInt(out, invocation.args.length);
+			for (String arg : invocation.args) {
+				out.writeUTF(arg);
+			}
+		}
+		return bytes.toByteArray();
+	}
+	
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int");
+	}
+	
+	/**
+	 * Creates the sender a forwarded command runs as. Messages sent to it are collected to send back and its name is
+	 * the original sender's. It only has the permissions which were sent and is never op, and its permissions cannot be
+	 * changed. Everything else is passed to the console.
+	 */
+	private static CommandSender createSender(String name, UUID id, Set<String> permissions, List<String> messages) {
+		return (CommandSender) Proxy.newProxyInstance(RemoteCommands.class.getClassLoader(), new Class<?>[] {CommandSender.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "sendMessage":
+					for (Object arg : args) {
+						if (arg instanceof String) {
+							messages.add((String) arg);
+						} else if (arg instanceof String[]) {
+							messages.addAll(Arrays.asList((String[]) arg));
+						}
+					}
+					return null;
+				case "getName":
+					return name;
+				case "hasPermission":
+				case "isPermissionSet":
+					return permissions.contains(args[0] instanceof Permission ? ((Permission) args[0]).getName() : (String) args[0]);
+				case "isOp":
+					return false;
+				case "setOp":
+				case "addAttachment":
+				case "removeAttachment":
+				case "recalculatePermissions":
+				case "getEffectivePermissions":
+					throw new UnsupportedOperationException("The permissions of a sender running a command from another server cannot be used or changed");
+				case "toString":
+					return "RemoteSender{" + name + (id == null ? "" : ", " + id) + "}";
+				default:
+					try {
+						return method.invoke(Bukkit.getConsoleSender(), args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+			}
+		});
+	}
+	
+	/**
+	 * The outcome of a forwarded command.
+	 */
+	static class Result {
+		
+		private Command.CommandResult result;
+		private String[] messages;
+		
+		private Result(Command.CommandResult result, String[] messages) {
+			this.result = result;
+			this.messages = messages;
+		}
+		
+		Command.CommandResult getResult() {
+			return result;
+		}
+		
+		String[] getMessages() {
+			return messages;
+		}
+		
+	}
+	
+	private static class Invocation {
+		
+		private String root;
+		private int[] path;
+		private String hook;
+		private String sender;
+		private UUID id;
+		private List<String> permissions;
+		private String[] args;
+		private CompletableFuture<Result> future = new CompletableFuture<>();
+		
+		private Invocation(String root, int[] path, String hook, CommandSender sender, List<String> permissions, String[] args) {
+			this.root = root;
+			this.path = path;
+			this.hook = hook;
+			this.sender = sender.getName();
+			id = sender instanceof Entity ? ((Entity) sender).getUniqueId() : null;
+			this.permissions = permissions;
+			this.args = args;
+		}
+		
+	}
+	
+}
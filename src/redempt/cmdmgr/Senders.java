@@ -0,0 +1,24 @@
+package redempt.cmdmgr;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+
+final class Senders {
+	
+	private Senders() {
+	}
+	
+	/**
+	 * Gets a key which identifies a sender across calls, for use in per-sender maps. Entities are keyed by UUID and
+	 * other senders, like the console, by name.
+	 * @param sender The sender
+	 * @return The key
+	 */
+	static Object key(CommandSender sender) {
+		if (sender instanceof Entity) {
+			return ((Entity) sender).getUniqueId();
+		}
+		return sender.getName();
+	}
+	
+}
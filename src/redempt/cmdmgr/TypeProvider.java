@@ -1,9 +1,20 @@
 package redempt.cmdmgr;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.bukkit.command.CommandSender;
@@ -13,6 +24,19 @@ public class TypeProvider<T> {
 	private String name;
 	private Function<String, T> function;
 	private Function<CommandSender, List<String>> tab = null;
+	private Function<CommandSender, Stream<String>> tabStream = null;
+	private Completer completer = null;
+	private int tabLimit = Integer.MAX_VALUE;
+	private ExpiringCache<CacheKey, List<String>> tabCache = null;
+	private CacheScope cacheScope = CacheScope.GLOBAL;
+	private long tabDeadline = 0;
+	private ExpiringCache<Object, LastCompletion> lastCompletions = null;
+	private Map<Object, Lookup> lookups = new ConcurrentHashMap<>();
+	private LongAdder deadlineLookups = new LongAdder();
+	private LongAdder deadlineMisses = new LongAdder();
+	private Metrics metrics = new Metrics();
+	private ExpiringCache<String, Object> conversionCache = null;
+	private boolean weakValues = false;
 	
 	/**
 	 * Make a new TypeProvider, converts a String to another type, so that a listener method can take direct types rather than taking a String and converting to another type in the method. It is recommended that you use lambdas.
@@ -30,43 +54,442 @@ public class TypeProvider<T> {
 	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
 	 */
 	public TypeProvider<T> setTab(Function<CommandSender, List<String>> completions) {
+		clearTab();
 		this.tab = completions;
 		return this;
 	}
 	
 	/**
 	 * Add a tab handler. This will allow the argument to be tab-completed.
-	 * @param completions A Function which gives a list of possible completions for the given command sender, in the form of a stream. Results which do not match the partial argument already typed by the user are omitted automatically.
+	 * @param completions A Function which gives a list of possible completions for the given command sender, in the form of a stream. Results which do not match the partial argument already typed by the user are omitted automatically, and the stream is not consumed past the tab limit.
 	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
 	 */
 	public TypeProvider<T> setTabStream(Function<CommandSender, Stream<String>> completions) {
-		this.tab = correct(completions);
+		clearTab();
+		this.tabStream = completions;
 		return this;
 	}
 	
-	private static Function<CommandSender, List<String>> correct(Function<CommandSender, Stream<String>> tab) {
-		return (s) -> {
-			List<String> list = new ArrayList<>();
-			tab.apply(s).forEach(list::add);
-			return list;
-		};
+	/**
+	 * Add a tab handler which is given the partial argument and the maximum number of results, so that large sets of completions can be searched rather than listed in full.
+	 * @param completer The Completer which finds completions for the partial argument. Results which do not match it are still omitted automatically.
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setTabCompleter(Completer completer) {
+		clearTab();
+		this.completer = completer;
+		return this;
+	}
+	
+	/**
+	 * Add a tab handler which completes from a fixed set of values, answered by binary search over a sorted copy.
+	 * @param values The possible completions
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setTabDictionary(Collection<String> values) {
+		return setTabCompleter(new CompletionDictionary(values));
+	}
+	
+	/**
+	 * Sets the maximum number of completions returned for one tab request. There is no limit by default.
+	 * @param limit The maximum number of completions
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setTabLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Tab limit must be at least 1");
+		}
+		this.tabLimit = limit;
+		return this;
+	}
+	
+	int getTabLimit() {
+		return tabLimit;
+	}
+	
+	boolean hasTabDeadline() {
+		return tabDeadline != 0;
+	}
+	
+	/**
+	 * Caches the completions from the tab handler, so that repeated tab requests within a short time do not call it again. For handlers set with setTab or setTabStream, all of the handler's results are cached and filtered for each request. For a Completer, the results are cached per partial argument.
+	 * @param scope Whether completions are cached once for all senders, or separately for each sender
+	 * @param ttl How long cached completions are used before the handler is called again
+	 * @param unit The unit of the ttl
+	 * @param maxSize The maximum number of cached entries, after which the least recently used is dropped
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setTabCache(CacheScope scope, long ttl, TimeUnit unit, int maxSize) {
+		this.cacheScope = scope;
+		this.tabCache = new ExpiringCache<>(ttl, unit, maxSize);
+		return this;
 	}
 	
+	/**
+	 * Discards all cached completions.
+	 */
+	public void invalidateTabCache() {
+		if (tabCache != null) {
+			tabCache.invalidateAll();
+		}
+	}
+	
+	/**
+	 * Discards the cached completions for one sender. Does nothing if the cache is global.
+	 * @param sender The sender
+	 */
+	public void invalidateTabCache(CommandSender sender) {
+		if (tabCache != null && cacheScope == CacheScope.SENDER) {
+			Object scope = Senders.key(sender);
+			tabCache.invalidateIf((k) -> k.scope.equals(scope));
+		}
+	}
+	
+	/**
+	 * @return The number of tab requests answered from the cache
+	 */
+	public long getTabCacheHits() {
+		return tabCache == null ? 0 : tabCache.getHits();
+	}
+	
+	/**
+	 * @return The number of tab requests which had to call the tab handler
+	 */
+	public long getTabCacheMisses() {
+		return tabCache == null ? 0 : tabCache.getMisses();
+	}
+	
+	/**
+	 * Runs the tab handler off the requesting thread and waits for it only up to a deadline. If the deadline is missed, the sender's last completions (filtered to the partial argument) are returned instead, or nothing if there are none that apply, and the late result is kept for the sender's next tab request. Only use this if the tab handler is safe to call from another thread. Handlers run on the {@link AsyncCommands} executor and count towards its maximum pending tasks.
+	 * <p>
+	 * Each sender has at most one lookup in progress per provider. A request which types further into the argument waits for the lookup in progress, whose completions also cover it. Any other request replaces the lookup in progress if it has not started yet, and otherwise gets the last completions.
+	 * @param timeout How long to wait for the tab handler
+	 * @param unit The unit of the timeout
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setTabDeadline(long timeout, TimeUnit unit) {
+		tabDeadline = unit.toNanos(timeout);
+		lastCompletions = tabDeadline == 0 ? null : new ExpiringCache<>(5, TimeUnit.MINUTES, 1024);
+		return this;
+	}
+	
+	/**
+	 * @return The number of tab requests which ran the tab handler with a deadline
+	 */
+	public long getTabDeadlineLookups() {
+		return deadlineLookups.sum();
+	}
+	
+	/**
+	 * @return The number of tab requests where the tab handler missed the deadline and the last completions were used
+	 */
+	public long getTabDeadlineMisses() {
+		return deadlineMisses.sum();
+	}
+	
+	/**
+	 * Caches the values this provider converts arguments to, so the same argument is not converted again while the
+	 * cached value is fresh. Arguments which could not be converted are not cached.
+	 * @param ttl How long a converted value is used before the argument is converted again
+	 * @param unit The unit of the ttl
+	 * @param maxSize The maximum number of cached values, after which the least recently used is dropped
+	 * @param weakValues Whether to hold cached values weakly, so that caching does not keep objects like unloaded worlds or offline players in memory
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setConversionCache(long ttl, TimeUnit unit, int maxSize, boolean weakValues) {
+		this.conversionCache = new ExpiringCache<>(ttl, unit, maxSize);
+		this.weakValues = weakValues;
+		return this;
+	}
+	
+	/**
+	 * Caches converted values for one server tick (50 milliseconds). See {@link #setConversionCache(long, TimeUnit, int, boolean)}.
+	 * @param maxSize The maximum number of cached values
+	 * @param weakValues Whether to hold cached values weakly
+	 * @return The TypeProvider. This is intended so that you can define a variable and call this method on the same line.
+	 */
+	public TypeProvider<T> setConversionCachePerTick(int maxSize, boolean weakValues) {
+		return setConversionCache(50, TimeUnit.MILLISECONDS, maxSize, weakValues);
+	}
+	
+	/**
+	 * Discards all cached converted values.
+	 */
+	public void invalidateConversionCache() {
+		if (conversionCache != null) {
+			conversionCache.invalidateAll();
+		}
+	}
+	
+	/**
+	 * @return The number of conversions answered from the cache
+	 */
+	public long getConversionCacheHits() {
+		return conversionCache == null ? 0 : conversionCache.getHits();
+	}
+	
+	/**
+	 * @return The number of conversions which had to call the conversion function
+	 */
+	public long getConversionCacheMisses() {
+		return conversionCache == null ? 0 : conversionCache.getMisses();
+	}
+	
+	private void clearTab() {
+		tab = null;
+		tabStream = null;
+		completer = null;
+		invalidateTabCache();
+	}
+	
+	@SuppressWarnings("unchecked")
 	public T get(String string) {
-		return function.apply(string);
+		ExpiringCache<String, Object> cache = conversionCache;
+		if (cache == null) {
+			return convert(string);
+		}
+		Object cached = cache.get(string);
+		T value = (T) (weakValues && cached != null ? ((WeakReference<?>) cached).get() : cached);
+		if (value == null) {
+			value = convert(string);
+			if (value != null) {
+				cache.put(string, weakValues ? new WeakReference<>(value) : value);
+			}
+		}
+		return value;
+	}
+	
+	private T convert(String string) {
+		long start = Metrics.start();
+		boolean error = true;
+		try {
+			T value = function.apply(string);
+			error = false;
+			if (value == null) {
+				metrics.recordInvalid();
+			}
+			return value;
+		} finally {
+			metrics.recordCall(start, error);
+		}
+	}
+	
+	/**
+	 * Gets the metrics for this type provider, such as how often it converts arguments and how long it takes.
+	 * @return The metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
 	}
 	
 	public List<String> complete(String partial, CommandSender sender) {
-		if (tab == null) {
+		return complete(partial, sender, tabLimit);
+	}
+	
+	/**
+	 * Gets the completions for a partial argument.
+	 * @param partial The partial argument, lowercase and trimmed
+	 * @param sender The sender requesting completions
+	 * @param limit The maximum number of completions to return
+	 * @return The completions which start with the partial argument
+	 */
+	public List<String> complete(String partial, CommandSender sender, int limit) {
+		if (tab == null && tabStream == null && completer == null) {
+			return new ArrayList<>();
+		}
+		long start = Metrics.start();
+		try {
+			return findCompletions(partial, sender, limit);
+		} finally {
+			metrics.recordCompletion(start);
+		}
+	}
+	
+	private List<String> findCompletions(String partial, CommandSender sender, int limit) {
+		if (tabDeadline == 0) {
+			return lookup(partial, sender, limit);
+		}
+		deadlineLookups.increment();
+		Object key = Senders.key(sender);
+		Lookup created = new Lookup(partial, limit);
+		Lookup lookup = lookups.compute(key, (k, current) -> current == null || current.future.isDone() || (!partial.startsWith(current.partial) && current.cancel()) ? created : current);
+		if (lookup != created && !partial.startsWith(lookup.partial)) {
+			// The lookup in progress has started for another prefix, so its completions may not include this one's
+			deadlineMisses.increment();
+			return lastCompletions(key, partial, limit);
+		}
+		if (lookup == created && !AsyncCommands.submit(() -> run(key, created, sender))) {
+			lookups.remove(key, created);
+			deadlineMisses.increment();
+			return lastCompletions(key, partial, limit);
+		}
+		try {
+			return filter(lookup.future.get(tabDeadline, TimeUnit.NANOSECONDS).stream(), partial, limit);
+		} catch (TimeoutException | CancellationException e) {
+			deadlineMisses.increment();
+			return lastCompletions(key, partial, limit);
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			return new ArrayList<>();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ArrayList<>();
+		}
+	}
+	
+	/**
+	 * Runs a lookup with a deadline on the executor, keeping its completions for the sender's next tab request.
+	 */
+	private void run(Object key, Lookup lookup, CommandSender sender) {
+		if (!lookup.start()) {
+			return;
+		}
+		try {
+			List<String> completions = lookup(lookup.partial, sender, lookup.limit);
+			lastCompletions.put(key, new LastCompletion(lookup.partial, completions));
+			lookup.future.complete(completions);
+		} catch (Throwable e) {
+			lookup.future.completeExceptionally(e);
+		} finally {
+			lookups.remove(key, lookup);
+		}
+	}
+	
+	private List<String> lastCompletions(Object key, String partial, int limit) {
+		LastCompletion last = lastCompletions.get(key);
+		if (last == null || !partial.startsWith(last.partial)) {
 			return new ArrayList<>();
 		}
-		List<String> completions = new CopyOnWriteArrayList<>(tab.apply(sender));
-		completions.stream().filter((s) -> s == null || !s.toLowerCase().startsWith(partial)).forEach(completions::remove);
-		return completions;
+		return filter(last.completions.stream(), partial, limit);
+	}
+	
+	private List<String> lookup(String partial, CommandSender sender, int limit) {
+		if (tabCache == null) {
+			return filter(source(partial, sender, limit), partial, limit);
+		}
+		Object scope = cacheScope == CacheScope.SENDER ? Senders.key(sender) : cacheScope;
+		if (completer != null) {
+			return new ArrayList<>(tabCache.get(new CacheKey(scope, partial, limit), (k) -> filter(source(partial, sender, limit), partial, limit)));
+		}
+		List<String> candidates = tabCache.get(new CacheKey(scope, null, 0), (k) -> source(partial, sender, limit).collect(Collectors.toList()));
+		return filter(candidates.stream(), partial, limit);
+	}
+	
+	private Stream<String> source(String partial, CommandSender sender, int limit) {
+		if (tab != null) {
+			return tab.apply(sender).stream();
+		}
+		if (tabStream != null) {
+			return tabStream.apply(sender);
+		}
+		return completer.complete(sender, partial, limit);
+	}
+	
+	private static List<String> filter(Stream<String> stream, String partial, int limit) {
+		return stream.filter((s) -> s != null && s.toLowerCase().startsWith(partial)).limit(limit).collect(Collectors.toList());
 	}
 	
 	public String getName() {
 		return name;
 	}
 	
+	/**
+	 * Whether cached completions are shared between senders.
+	 */
+	public static enum CacheScope {
+		
+		GLOBAL,
+		SENDER
+		
+	}
+	
+	/**
+	 * A lookup with a deadline for one sender, which can be cancelled until it starts.
+	 */
+	private static class Lookup {
+		
+		private final String partial;
+		private final int limit;
+		private final CompletableFuture<List<String>> future = new CompletableFuture<>();
+		private boolean started = false;
+		
+		private Lookup(String partial, int limit) {
+			this.partial = partial;
+			this.limit = limit;
+		}
+		
+		private synchronized boolean start() {
+			if (future.isDone()) {
+				return false;
+			}
+			started = true;
+			return true;
+		}
+		
+		/**
+		 * @return Whether the lookup was cancelled, which it cannot be once it has started
+		 */
+		private synchronized boolean cancel() {
+			return !started && future.cancel(false);
+		}
+		
+	}
+	
+	private static class LastCompletion {
+		
+		private final String partial;
+		private final List<String> completions;
+		
+		private LastCompletion(String partial, List<String> completions) {
+			this.partial = partial;
+			this.completions = completions;
+		}
+		
+	}
+	
+	private static class CacheKey {
+		
+		private final Object scope;
+		private final String prefix;
+		private final int limit;
+		
+		private CacheKey(Object scope, String prefix, int limit) {
+			this.scope = scope;
+			this.prefix = prefix;
+			this.limit = limit;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey key = (CacheKey) o;
+			return scope.equals(key.scope) && Objects.equals(prefix, key.prefix) && limit == key.limit;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(scope, prefix, limit);
+		}
+		
+	}
+	
+	/**
+	 * Finds tab completions for a partial argument.
+	 */
+	@FunctionalInterface
+	public static interface Completer {
+		
+		/**
+		 * Finds completions for a partial argument. The stream is not consumed past the limit, so it can be lazy.
+		 * @param sender The sender requesting completions
+		 * @param prefix The partial argument, lowercase and trimmed
+		 * @param limit The maximum number of completions that will be used
+		 * @return The completions which start with the prefix, ignoring case
+		 */
+		public Stream<String> complete(CommandSender sender, String prefix, int limit);
+		
+	}
+	
 }
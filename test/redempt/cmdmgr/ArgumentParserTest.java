@@ -0,0 +1,75 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the number parsers accept exactly what Integer#parseInt and Double#parseDouble accept, and give the same
+ * values, for a table of inputs and for every short string made of the characters numbers are written with.
+ */
+public class ArgumentParserTest {
+	
+	private static final String[] INTS = {
+			"", " ", "0", "1", "-1", "+1", "-0", "+0", "00012", "-00012", "+", "-", "+-1", "-+1", "--1", "++1", " 1", "1 ",
+			"2147483647", "2147483648", "-2147483648", "-2147483649", "+2147483647", "+2147483648", "02147483647",
+			"-02147483648", "9999999999", "-9999999999", "99999999999999999999", "1.0", "1e3", "0x10", "10L", "1_000",
+			"a", "1a", "\u0661\u0662\u0663", "-\u0661", "\uff11\uff12", "NaN", "Infinity"
+	};
+	
+	private static final String[] DOUBLES = {
+			"", " ", "\t", "0", "1", "-1", "+1", "-0", "+0", "-0.0", ".5", "-.5", "+.5", "5.", "-5.", ".", "-.", "+", "-",
+			"+-1", "--1", " 1.5", "1.5 ", "\t2\n", " - 1", "1.5.2", "1e3", "1E3", "1e+3", "1e-3", "-1.5e-3", "1e", "1e+",
+			"e3", ".e3", "1.e3", ".5e3", "1e3.5", "1e400", "-1e400", "1e-400", "4.9e-324", "1.7976931348623157e308",
+			"1.7976931348623159e308", "0x10", "0x10p0", "0x1p-2", "0X1P+2", "-0x1.8p1", "0x.8p1", "0x1.p1", "0xp1", "0x.p1",
+			"0x1", "0x1p", "0x1p+", "0xgp1", "0x1p1d", "0x1p1F", "0x\uff11p1", "NaN", "+NaN", "-NaN", "nan", "NaNd", " NaN ",
+			"Infinity", "+Infinity", "-Infinity", "infinity", "Inf", "Infinityf", " -Infinity\t", "1d", "1D", "1f", "1F",
+			"1.5d", "-1e3f", ".5F", "1dd", "1df", "1l", "d", ".d", "1 d", "1e3d", "1e d", "NaNf", "\u0661.5", "\uff11", "1_0"
+	};
+	
+	private static final String ALPHABET = "09 +-.eExpPdfNa";
+	
+	@Test
+	public void intTable() {
+		for (String string : INTS) {
+			assertEquals(reference(Integer::parseInt, string), ArgumentParser.parseInt(string), "'" + string + "'");
+		}
+	}
+	
+	@Test
+	public void doubleTable() {
+		for (String string : DOUBLES) {
+			assertEquals(reference(Double::parseDouble, string), ArgumentParser.parseDouble(string), "'" + string + "'");
+		}
+	}
+	
+	@Test
+	public void shortStrings() {
+		char[] chars = new char[4];
+		for (int length = 0; length <= chars.length; length++) {
+			int count = (int) Math.pow(ALPHABET.length(), length);
+			for (int n = 0; n < count; n++) {
+				for (int i = 0, rest = n; i < length; i++, rest /= ALPHABET.length()) {
+					chars[i] = ALPHABET.charAt(rest % ALPHABET.length());
+				}
+				String string = new String(chars, 0, length);
+				assertEquals(reference(Integer::parseInt, string), ArgumentParser.parseInt(string), "'" + string + "'");
+				assertEquals(reference(Double::parseDouble, string), ArgumentParser.parseDouble(string), "'" + string + "'");
+			}
+		}
+	}
+	
+	/**
+	 * @return What the JDK parses the String to, or null if it throws
+	 */
+	private static <T> T reference(Function<String, T> parser, String string) {
+		try {
+			return parser.apply(string);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+}
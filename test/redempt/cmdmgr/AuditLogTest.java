@@ -0,0 +1,236 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes audit logs to a temporary directory, checking that entries come out in order as the ring buffer wraps
+ * around, that files are rolled over, that a failed roll over does not lose entries, and that stopping writes what
+ * was recorded.
+ */
+public class AuditLogTest {
+	
+	private static final Pattern ENTRY = Pattern.compile("\\S+ CONSOLE /audit words=entry(\\d+) SUCCESS 1\\.50ms");
+	
+	private static Command command;
+	
+	@TempDir
+	public Path dir;
+	private CommandSender console = TestSenders.console(new ArrayList<>());
+	private int next = 0;
+	
+	@BeforeAll
+	public static void load() throws IOException {
+		command = Command.fromStream(new ByteArrayInputStream("audit multistring:words {\n\thook audit\n}\n".getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	@AfterEach
+	public void stop() {
+		AuditLog.stop();
+	}
+	
+	@Test
+	public void entriesStayInOrderAcrossWraparound() throws IOException {
+		Path file = dir.resolve("audit.log");
+		AuditLog.start(file, 4, 1024 * 1024, 1);
+		long written = AuditLog.getWritten();
+		for (int i = 0; i < 10; i++) {
+			// Three at a time in four slots, so the positions wrap around at a different slot each time
+			record(3);
+			awaitWritten(written + 3 * (i + 1));
+		}
+		AuditLog.stop();
+		assertEquals(range(0, 30), entries(file));
+	}
+	
+	@Test
+	public void fullBufferDropsAndCounts() throws IOException {
+		Path file = dir.resolve("audit.log");
+		AuditLog.start(file, 4, 1024 * 1024, 1);
+		long written = AuditLog.getWritten();
+		long dropped = AuditLog.getDropped();
+		record(10000);
+		AuditLog.stop();
+		List<Integer> entries = entries(file);
+		assertEquals(10000, AuditLog.getWritten() - written + AuditLog.getDropped() - dropped);
+		assertEquals(AuditLog.getWritten() - written, entries.size());
+		for (int i = 1; i < entries.size(); i++) {
+			assertTrue(entries.get(i) > entries.get(i - 1), "Entries out of order at " + i);
+		}
+	}
+	
+	@Test
+	public void rollsOverToBackups() throws IOException {
+		Path file = dir.resolve("audit.log");
+		AuditLog.start(file, 64, 300, 2);
+		long written = AuditLog.getWritten();
+		for (int i = 0; i < 8; i++) {
+			record(3);
+			awaitWritten(written + 3 * (i + 1));
+		}
+		AuditLog.stop();
+		assertTrue(Files.exists(dir.resolve("audit.log.2")));
+		assertFalse(Files.exists(dir.resolve("audit.log.3")));
+		List<Integer> entries = new ArrayList<>();
+		for (String name : new String[] {"audit.log.2", "audit.log.1", "audit.log"}) {
+			assertTrue(Files.size(dir.resolve(name)) <= 300, name + " is larger than the maximum size");
+			entries.addAll(entries(dir.resolve(name)));
+		}
+		// The oldest entries were in backups which were deleted
+		assertEquals(range(24 - entries.size(), 24), entries);
+	}
+	
+	@Test
+	public void failedRollOverKeepsWriting() throws IOException {
+		Path file = dir.resolve("audit.log");
+		// The backup cannot be replaced while a directory which is not empty is in its place
+		Path blocked = Files.createDirectories(dir.resolve("audit.log.1"));
+		Files.createFile(blocked.resolve("file"));
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true));
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			AuditLog.start(file, 64, 300, 1);
+			long written = AuditLog.getWritten();
+			for (int i = 0; i < 6; i++) {
+				record(3);
+				awaitWritten(written + 3 * (i + 1));
+			}
+			assertEquals(range(0, 18), entries(file));
+			String output = printed.toString();
+			assertEquals(output.indexOf("Could not roll over"), output.lastIndexOf("Could not roll over"), output);
+			assertTrue(output.contains("Could not roll over"), output);
+			assertFalse(output.contains("Could not write"), output);
+			Files.delete(blocked.resolve("file"));
+			Files.delete(blocked);
+			record(3);
+			awaitWritten(written + 21);
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+		AuditLog.stop();
+		assertEquals(range(0, 18), entries(dir.resolve("audit.log.1")));
+		assertEquals(range(18, 21), entries(file));
+	}
+	
+	@Test
+	public void stopWritesPendingEntries() throws IOException {
+		Path file = dir.resolve("audit.log");
+		AuditLog.start(file, 256, 1024 * 1024, 1);
+		long written = AuditLog.getWritten();
+		record(200);
+		AuditLog.stop();
+		assertFalse(AuditLog.isEnabled());
+		assertEquals(range(0, 200), entries(file));
+		assertEquals(written + 200, AuditLog.getWritten());
+		record(1);
+		assertEquals(written + 200, AuditLog.getWritten());
+		assertEquals(200, entries(file).size());
+	}
+	
+	@Test
+	public void asyncCommandIsRecordedWhenHookFinishes() throws Exception {
+		Command jobs = Command.fromStream(new ByteArrayInputStream("jobs {\n\tslow {\n\t\thook slow\n\t\tasync\n\t}\n\tfail {\n\t\thook fail\n\t\tasync\n\t}\n}\n".getBytes(StandardCharsets.UTF_8)));
+		Map<String, CommandInvoker> hooks = new HashMap<>();
+		hooks.put("slow", (sender, values) -> Thread.sleep(60));
+		hooks.put("fail", (sender, values) -> {
+			throw new IllegalStateException("Failed");
+		});
+		jobs.bindHooks(null, hooks);
+		Path file = dir.resolve("audit.log");
+		Executor executor = AsyncCommands.getExecutor();
+		ExecutorService service = Executors.newSingleThreadExecutor();
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		System.setOut(new PrintStream(new ByteArrayOutputStream()));
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try {
+			AsyncCommands.setExecutor(service);
+			AuditLog.start(file, 64, 1024 * 1024, 1);
+			jobs.execute(console, new String[] {"slow"});
+			jobs.execute(console, new String[] {"fail"});
+			service.shutdown();
+			assertTrue(service.awaitTermination(5, TimeUnit.SECONDS));
+		} finally {
+			AsyncCommands.setExecutor(executor);
+			System.setOut(out);
+			System.setErr(err);
+		}
+		AuditLog.stop();
+		List<String> lines = Files.readAllLines(file);
+		assertEquals(2, lines.size(), lines.toString());
+		Matcher slow = Pattern.compile(".* /jobs slow SUCCESS (\\d+)\\.\\d+ms").matcher(lines.get(0));
+		assertTrue(slow.matches(), lines.get(0));
+		assertTrue(Integer.parseInt(slow.group(1)) >= 60, "The time waited for the hook was not recorded: " + lines.get(0));
+		assertTrue(lines.get(1).matches(".* /jobs fail ERROR \\d+\\.\\d+ms"), lines.get(1));
+		for (Metrics.Snapshot snapshot : jobs.snapshotMetrics()) {
+			assertEquals(1, snapshot.getCalls(), snapshot.getName());
+			assertEquals(snapshot.getName().equals("jobs fail") ? 1 : 0, snapshot.getErrors(), snapshot.getName());
+		}
+	}
+	
+	private void record(int count) {
+		for (int i = 0; i < count; i++) {
+			AuditLog.record(console, command, new String[] {"entry" + next++}, 0, Command.CommandResult.SUCCESS, 1_500_000);
+		}
+	}
+	
+	private static void awaitWritten(long count) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (AuditLog.getWritten() < count) {
+			assertTrue(System.nanoTime() < deadline, "Entries were not written");
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private static List<Integer> entries(Path file) throws IOException {
+		List<Integer> entries = new ArrayList<>();
+		for (String line : Files.readAllLines(file)) {
+			Matcher matcher = ENTRY.matcher(line);
+			assertTrue(matcher.matches(), line);
+			entries.add(Integer.parseInt(matcher.group(1)));
+		}
+		return entries;
+	}
+	
+	private static List<Integer> range(int from, int to) {
+		List<Integer> range = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			range.add(i);
+		}
+		return range;
+	}
+	
+}
@@ -0,0 +1,274 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks completion graphs offline: the encoded graph is decoded again and checked for consistent indexes in both
+ * parser layouts, and the completions a client would find in it are compared with the server's tab completions.
+ */
+public class CompletionGraphTest {
+	
+	private static final Map<Integer, String> PARSERS = new HashMap<>();
+	
+	static {
+		PARSERS.put(2, "brigadier:double");
+		PARSERS.put(3, "brigadier:integer");
+		PARSERS.put(5, "brigadier:string");
+	}
+	
+	private static List<Command> commands = new ArrayList<>();
+	
+	@BeforeAll
+	public static void load() throws IOException {
+		try (InputStream stream = CompletionGraphTest.class.getResourceAsStream("/examplecmd.txt")) {
+			Command command = Command.fromStreamMulti(stream).get(0);
+			command.registerTypeProvider(new TypeProvider<>("world", (s) -> s));
+			commands.add(command);
+		}
+		Command command = Command.fromStream(new ByteArrayInputStream(DispatchTest.TREE.getBytes(StandardCharsets.UTF_8)));
+		command.registerTypeProvider(new TypeProvider<>("color", (s) -> s));
+		commands.add(command);
+	}
+	
+	private static List<CommandSender> senders() {
+		List<String> messages = new ArrayList<>();
+		return Arrays.asList(TestSenders.player("Graph", messages), TestSenders.console(messages), TestSenders.player("Limited", messages, "plugin.coins", "plugin.createworld"));
+	}
+	
+	@Test
+	public void encodedIndexesAreConsistent() throws IOException {
+		for (Command command : commands) {
+			for (CommandSender sender : senders()) {
+				CompletionGraph graph = CompletionGraph.build(sender, Collections.singletonList(command));
+				List<Decoded> names = decode(graph.toBytes(), false);
+				List<Decoded> ids = decode(graph.toBytes(759), true);
+				assertEquals(names, decode(graph.toBytes(758), false));
+				assertEquals(names, ids, "Parser IDs decode to different nodes than parser names");
+				assertEquals(graph.size(), names.size());
+				assertEquals(0, names.get(0).type);
+				Set<Integer> reached = new HashSet<>();
+				reach(names, 0, reached);
+				assertEquals(names.size(), reached.size(), "Some nodes cannot be reached from the root");
+				for (int i = 1; i < names.size(); i++) {
+					assertTrue(names.get(i).type == 1 || names.get(i).type == 2, "Node " + i + " is a second root");
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void completionsMatchTabComplete() throws IOException {
+		for (Command command : commands) {
+			for (CommandSender sender : senders()) {
+				CompletionGraph graph = CompletionGraph.build(sender, Collections.singletonList(command));
+				List<Decoded> decoded = decode(graph.toBytes(759), true);
+				for (String name : command.getNames()) {
+					compare(graph, decoded, command, command, new ArrayList<>(), name, sender);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void unusableCommandsAreLeftOut() {
+		CommandSender sender = TestSenders.player("Limited", new ArrayList<>(), "plugin.coins", "plugin.createworld");
+		CompletionGraph graph = CompletionGraph.build(sender, commands.subList(0, 1));
+		assertEquals(Arrays.asList("coins"), graph.complete("cmdname co"));
+		assertEquals(Arrays.asList("create"), graph.complete("cmdname world "));
+		assertEquals(Arrays.asList("stats"), graph.complete("cmdname s"));
+		assertFalse(CompletionGraph.build(TestSenders.console(new ArrayList<>()), commands.subList(0, 1)).complete("cmdname ").contains("coins"));
+	}
+	
+	/**
+	 * Compares the completions for each prefix of each subcommand name typed after a path of subcommand names, then
+	 * does the same below each subcommand which takes no arguments. Completions are compared as the commands they name,
+	 * as the server leaves out aliases whose primary name is suggested and the client does not. Commands the sender
+	 * cannot use are only completed by the server, which checks them when they are run. Subcommands which come after
+	 * an overload are not followed, as the server completes the overload instead.
+	 */
+	private static void compare(CompletionGraph graph, List<Decoded> decoded, Command root, Command node, List<String> path, String line, CommandSender sender) {
+		Set<String> prefixes = new TreeSet<>();
+		prefixes.add("");
+		for (Command child : node.getChildren()) {
+			for (String name : child.getNames()) {
+				for (int i = 1; i <= name.length() && !name.equals("_"); i++) {
+					prefixes.add(name.substring(0, i));
+				}
+			}
+		}
+		for (String prefix : prefixes) {
+			List<String> args = new ArrayList<>(path);
+			args.add(prefix);
+			List<String> expected = root.tabComplete(sender, args.toArray(new String[0]));
+			List<String> completions = graph.complete(line + " " + prefix);
+			String message = "/" + line + " " + prefix + " as " + sender.getName() + ": server " + expected + ", graph " + completions;
+			assertEquals(named(node, expected, sender), named(node, completions, sender), message);
+			assertEquals(new TreeSet<>(completions), new TreeSet<>(complete(decoded, line + " " + prefix)), message);
+		}
+		Set<Command> followed = new HashSet<>();
+		for (Command child : node.getChildren()) {
+			if (Arrays.asList(child.getNames()).contains("_")) {
+				break;
+			}
+			if (child.getArguments().length == 0 && child.isUsableBy(sender) && followed.add(child)) {
+				List<String> next = new ArrayList<>(path);
+				next.add(child.getNames()[0]);
+				compare(graph, decoded, root, child, next, line + " " + child.getNames()[0], sender);
+			}
+		}
+	}
+	
+	/**
+	 * @return The subcommands of a command named by the completions which the sender can use
+	 */
+	private static Set<Command> named(Command node, List<String> completions, CommandSender sender) {
+		Set<Command> named = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Command child : node.getChildren()) {
+			for (String name : child.getNames()) {
+				if (completions != null && completions.contains(name) && child.isUsableBy(sender)) {
+					named.add(child);
+				}
+			}
+		}
+		return named;
+	}
+	
+	/**
+	 * Completes the literal names after a line of literal names, from the decoded nodes.
+	 */
+	private static List<String> complete(List<Decoded> nodes, String line) {
+		String[] words = line.split(" ", -1);
+		Decoded node = nodes.get(0);
+		for (int i = 0; i < words.length - 1 && node != null; i++) {
+			Decoded next = null;
+			for (int child : node.children) {
+				if (nodes.get(child).type == 1 && nodes.get(child).name.equals(words[i])) {
+					next = nodes.get(child);
+				}
+			}
+			node = next;
+		}
+		List<String> completions = new ArrayList<>();
+		for (int i = 0; node != null && i < node.children.length; i++) {
+			Decoded child = nodes.get(node.children[i]);
+			if (child.type == 1 && child.name.startsWith(words[words.length - 1])) {
+				completions.add(child.name);
+			}
+		}
+		return completions;
+	}
+	
+	private static void reach(List<Decoded> nodes, int index, Set<Integer> reached) {
+		if (reached.add(index)) {
+			for (int child : nodes.get(index).children) {
+				reach(nodes, child, reached);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a graph in the layout of the packet which declares commands, checking that every index is in range.
+	 * @param ids Whether parsers are written as registry IDs rather than names
+	 */
+	private static List<Decoded> decode(byte[] bytes, boolean ids) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int count = RemoteCommands.readVarInt(in);
+		List<Decoded> nodes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Decoded node = new Decoded();
+			int flags = in.readUnsignedByte();
+			node.type = flags & 0x03;
+			node.executable = (flags & 0x04) != 0;
+			node.children = new int[RemoteCommands.readVarInt(in)];
+			for (int j = 0; j < node.children.length; j++) {
+				node.children[j] = RemoteCommands.readVarInt(in);
+				assertTrue(node.children[j] > 0 && node.children[j] < count, "Child index " + node.children[j] + " of node " + i);
+			}
+			if ((flags & 0x08) != 0) {
+				int redirect = RemoteCommands.readVarInt(in);
+				assertTrue(redirect >= 0 && redirect < count, "Redirect index " + redirect + " of node " + i);
+			}
+			if (node.type != 0) {
+				node.name = readString(in);
+			}
+			if (node.type == 2) {
+				if (ids) {
+					int id = RemoteCommands.readVarInt(in);
+					assertTrue(PARSERS.containsKey(id), "Unknown parser ID " + id);
+					node.parser = PARSERS.get(id);
+				} else {
+					node.parser = readString(in);
+				}
+				node.properties = node.parser.equals("brigadier:string") ? RemoteCommands.readVarInt(in) : in.readUnsignedByte();
+			}
+			if ((flags & 0x10) != 0) {
+				node.suggestions = readString(in);
+			}
+			nodes.add(node);
+		}
+		assertEquals(0, RemoteCommands.readVarInt(in), "Root index");
+		assertEquals(-1, in.read(), "Bytes after the root index");
+		return nodes;
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[RemoteCommands.readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static class Decoded {
+		
+		private int type;
+		private boolean executable;
+		private int[] children;
+		private String name;
+		private String parser;
+		private int properties;
+		private String suggestions;
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Decoded)) {
+				return false;
+			}
+			Decoded node = (Decoded) o;
+			return type == node.type && executable == node.executable && Arrays.equals(children, node.children) && String.valueOf(name).equals(String.valueOf(node.name))
+					&& String.valueOf(parser).equals(String.valueOf(node.parser)) && properties == node.properties && String.valueOf(suggestions).equals(String.valueOf(node.suggestions));
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(children);
+		}
+		
+		@Override
+		public String toString() {
+			return type + ":" + name + Arrays.toString(children);
+		}
+		
+	}
+	
+}
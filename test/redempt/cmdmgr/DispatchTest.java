@@ -0,0 +1,324 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the dispatch tables run the same hook with the same arguments, and send the same messages, as the
+ * original dispatch, which tried every child in order for each command line. The original dispatch is reimplemented
+ * here over the command definitions and both are run on random command lines, by players and the console with random
+ * sets of permissions.
+ */
+public class DispatchTest {
+	
+	static final String TREE = String.join("\n",
+			"cmd,c {",
+			"	help Root",
+			"	a,alpha string:x {",
+			"		hook hA",
+			"	}",
+			"	_ int:n {",
+			"		hook hOverInt",
+			"	}",
+			"	b,beta {",
+			"		permission test.b",
+			"		_ double:d string:s {",
+			"			hook hBd",
+			"		}",
+			"		_ multistring:rest {",
+			"			hook hBrest",
+			"		}",
+			"		inner,in *string:q {",
+			"			hook hInner",
+			"			permission test.inner",
+			"			users player",
+			"		}",
+			"		deep {",
+			"			hidesub",
+			"			x int:a int:b {",
+			"				hook hX",
+			"				permission test.x",
+			"			}",
+			"			y {",
+			"				z,zz {",
+			"					hook hZ",
+			"				}",
+			"			}",
+			"		}",
+			"	}",
+			"	alpha int:n {",
+			"		hook hAlphaInt",
+			"	}",
+			"	_ string:s string:t {",
+			"		hook hOverStr",
+			"		permission test.over",
+			"		users console",
+			"	}",
+			"	paint color:c {",
+			"		hook hPaint",
+			"		permission test.paint",
+			"	}",
+			"	coins {",
+			"		hook getCoins",
+			"		_ *int:amount {",
+			"			hook setCoins",
+			"			permission test.setcoins",
+			"		}",
+			"		teleport,tp,tpa {",
+			"			hook hTp",
+			"		}",
+			"		tpx,teleportx {",
+			"			hook hTpx",
+			"		}",
+			"	}",
+			"}",
+			"");
+	private static final String[] WORDS = {"a", "alpha", "A", "b", "beta", "inner", "in", "deep", "x", "y", "z", "zz", "coins", "tp", "teleport",
+			"tpa", "tpx", "teleportx", "paint", "red", "green", "blue", "1", "2", "-3", "1.5", "foo", "", "_", "c", "cmd", "2147483648", "+5", "1e3",
+			"NaN", "help"};
+	private static final String[] PERMISSIONS = {"test.b", "test.inner", "test.x", "test.over", "test.paint", "test.setcoins"};
+	private static final Function<String, String> COLORS = (s) -> s.equals("red") || s.equals("green") ? s : null;
+	
+	private static Command command;
+	private static CommandDefinition definition;
+	private static List<String> invoked = new ArrayList<>();
+	
+	@BeforeAll
+	public static void load() throws IOException {
+		command = loadTree();
+		definition = CommandParser.parse(new BufferedReader(new StringReader(TREE))).get(0);
+	}
+	
+	private static Command loadTree() throws IOException {
+		Command command = TestCommands.quietly(() -> {
+			Command loaded = Command.fromStream(new ByteArrayInputStream(TREE.getBytes(StandardCharsets.UTF_8)));
+			loaded.registerTypeProvider(new TypeProvider<>("color", COLORS));
+			return loaded;
+		});
+		Map<String, CommandInvoker> hooks = new HashMap<>();
+		for (String hook : new String[] {"hA", "hOverInt", "hBd", "hBrest", "hInner", "hX", "hZ", "hAlphaInt", "hOverStr", "hPaint", "getCoins", "setCoins", "hTp", "hTpx"}) {
+			hooks.put(hook, (sender, values) -> {
+				List<String> strings = new ArrayList<>();
+				for (Object value : values) {
+					strings.add(String.valueOf(value));
+				}
+				invoked.add(hook + strings);
+			});
+		}
+		command.bindHooks(null, hooks);
+		return command;
+	}
+	
+	@Test
+	public void matchesOriginalDispatch() {
+		Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			String[] args = new String[random.nextInt(5)];
+			for (int j = 0; j < args.length; j++) {
+				args[j] = WORDS[random.nextInt(WORDS.length)];
+			}
+			// Each player has their own set of permissions, as their permission decisions are cached by UUID
+			int granted = random.nextInt(1 << PERMISSIONS.length);
+			List<String> permissions = new ArrayList<>();
+			for (int j = 0; j < PERMISSIONS.length; j++) {
+				if ((granted >> j & 1) != 0) {
+					permissions.add(PERMISSIONS[j]);
+				}
+			}
+			// A sender given no permissions has every permission
+			permissions.add("test.none");
+			boolean player = random.nextBoolean();
+			List<String> messages = new ArrayList<>();
+			String[] array = permissions.toArray(new String[0]);
+			CommandSender sender = player ? TestSenders.player("Player" + granted, messages, array) : TestSenders.console(messages, array);
+			List<String> expected = new ArrayList<>();
+			List<String> expectedMessages = new ArrayList<>();
+			execute(definition, "cmd", args, permissions, player, false, expected, expectedMessages);
+			invoked.clear();
+			command.execute(sender, args.clone());
+			String line = "/cmd " + String.join(" ", args) + " as " + sender.getName() + " with " + permissions;
+			assertEquals(expected, invoked, line);
+			List<String> sent = new ArrayList<>();
+			for (String message : messages) {
+				sent.add(classify(message));
+			}
+			assertEquals(expectedMessages, sent, line);
+		}
+	}
+	
+	/**
+	 * Gets what a message sent by CmdMgr stands for: help pages, and the suggestions shown in place of one, are
+	 * reduced to the name of the command they are for, as the original dispatch only showed the whole help page.
+	 */
+	private static String classify(String message) {
+		int header = message.indexOf("[ Help for ");
+		if (header != -1) {
+			return "help " + message.substring(header + "[ Help for ".length(), message.indexOf(" ]", header));
+		}
+		int footer = message.lastIndexOf("Use /");
+		if (message.contains("Unknown command") && footer != -1) {
+			String path = message.substring(footer + "Use /".length(), message.lastIndexOf(" help to see all commands"));
+			return "help " + path.substring(path.lastIndexOf(' ') + 1);
+		}
+		return message;
+	}
+	
+	@Test
+	public void updatedTablesMatchRebuiltTables() throws IOException {
+		Command updated = loadTree();
+		List<Command> children = new ArrayList<>(updated.getChildren());
+		updated.removeChildren(children);
+		Random random = new Random(2);
+		List<Integer> kept = new ArrayList<>();
+		// Commands are run after every change, so the table is kept up to date rather than rebuilt
+		for (int i = 0; i < children.size(); i++) {
+			updated.addChild(children.get(i));
+			kept.add(i);
+			compare(withChildren(kept), updated, random);
+		}
+		while (!kept.isEmpty()) {
+			updated.removeChild(children.get(kept.remove(random.nextInt(kept.size()))));
+			compare(withChildren(kept), updated, random);
+		}
+	}
+	
+	/**
+	 * Loads the tree with only some of its children, removed before its dispatch table is first built.
+	 * @param kept The positions of the children to keep
+	 */
+	private static Command withChildren(List<Integer> kept) throws IOException {
+		Command command = loadTree();
+		List<Command> removed = new ArrayList<>();
+		for (int i = 0; i < command.getChildren().size(); i++) {
+			if (!kept.contains(i)) {
+				removed.add(command.getChildren().get(i));
+			}
+		}
+		command.removeChildren(removed);
+		return command;
+	}
+	
+	private static void compare(Command expected, Command actual, Random random) {
+		List<String> expectedMessages = new ArrayList<>();
+		List<String> actualMessages = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			String[] args = new String[random.nextInt(4)];
+			for (int j = 0; j < args.length; j++) {
+				args[j] = WORDS[random.nextInt(WORDS.length)];
+			}
+			boolean player = random.nextBoolean();
+			String line = "/cmd " + String.join(" ", args) + (player ? " as a player" : " as console");
+			invoked.clear();
+			expected.execute(player ? TestSenders.player("Steve", expectedMessages) : TestSenders.console(expectedMessages), args.clone());
+			List<String> hooks = new ArrayList<>(invoked);
+			invoked.clear();
+			actual.execute(player ? TestSenders.player("Steve", actualMessages) : TestSenders.console(actualMessages), args.clone());
+			assertEquals(hooks, invoked, line);
+			assertEquals(expectedMessages, actualMessages, line);
+			assertEquals(expected.tabComplete(TestSenders.console(expectedMessages), args), actual.tabComplete(TestSenders.console(actualMessages), args), line);
+		}
+	}
+	
+	/**
+	 * The original dispatch, recording the hooks it would run and the messages it would send.
+	 * @param name The name shown in the help page of the command, which is the parent's for an overload
+	 * @return Whether the command line was handled, rather than left for the next overload
+	 */
+	private static boolean execute(CommandDefinition definition, String name, String[] args, List<String> permissions, boolean player, boolean overload, List<String> invoked, List<String> messages) {
+		String permission = definition.getDirective("permission");
+		if (permission != null && !permissions.contains(permission)) {
+			messages.add(ChatColor.RED + "You do not have permission to execute that command. " + "(Node: " + permission + ")");
+			return false;
+		}
+		String users = definition.getDirective("users");
+		if (users != null && users.equals("player") != player) {
+			messages.add(ChatColor.RED + (player ? "This command can only be executed by console!" : "This command can only be exeucted by a player!"));
+			return false;
+		}
+		List<String> values = convert(definition.getArgs(), args);
+		String hook = definition.getDirective("hook");
+		if (values == null || (args.length == 0 && hook == null)) {
+			if (args.length == 0) {
+				messages.add("help " + name);
+				return true;
+			}
+			for (CommandDefinition child : definition.getChildren()) {
+				for (String childName : child.getNames()) {
+					if (childName.equals("_")) {
+						if (execute(child, definition.getNames()[0], args, permissions, player, true, invoked, messages)) {
+							return true;
+						}
+					} else if (childName.equals(args[0]) && execute(child, child.getNames()[0], Arrays.copyOfRange(args, 1, args.length), permissions, player, false, invoked, messages)) {
+						return true;
+					}
+				}
+			}
+			if (!overload) {
+				messages.add("help " + name);
+			}
+			return !overload;
+		}
+		invoked.add(hook + values);
+		return true;
+	}
+	
+	private static List<String> convert(String[][] types, String[] args) {
+		boolean multistring = types.length != 0 && types[types.length - 1][0].equals("multistring");
+		if (args.length != types.length && !(multistring && args.length > types.length)) {
+			return null;
+		}
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String type = types[i][0].replace("*", "");
+			Object value;
+			switch (type) {
+				case "multistring":
+					values.add(String.join(" ", Arrays.copyOfRange(args, i, args.length)).trim());
+					return values;
+				case "int":
+					value = parse(Integer::parseInt, args[i]);
+					break;
+				case "double":
+					value = parse(Double::parseDouble, args[i]);
+					break;
+				case "string":
+					value = args[i];
+					break;
+				default:
+					value = COLORS.apply(args[i]);
+					break;
+			}
+			if (value == null) {
+				return null;
+			}
+			values.add(String.valueOf(value));
+		}
+		return values;
+	}
+	
+	private static Object parse(Function<String, Object> parser, String arg) {
+		try {
+			return parser.apply(arg);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+}
@@ -0,0 +1,73 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks when a command line which runs no hook gets suggestions for a mistyped subcommand rather than a help page,
+ * using the example command file.
+ */
+public class HelpTest {
+	
+	private static Command command;
+	
+	@BeforeAll
+	public static void load() throws IOException {
+		command = TestCommands.quietly(() -> {
+			try (InputStream stream = HelpTest.class.getResourceAsStream("/examplecmd.txt")) {
+				Command loaded = Command.fromStreamMulti(stream).get(0);
+				loaded.registerTypeProvider(new TypeProvider<>("world", (s) -> s.equals("world") ? s : null));
+				return loaded;
+			}
+		});
+	}
+	
+	private static String run(CommandSender sender, String line) {
+		List<String> messages = new ArrayList<>();
+		command.execute(sender == null ? TestSenders.player("Notch", messages) : sender, line.split(" "));
+		return String.join("\n", messages);
+	}
+	
+	@Test
+	public void helpShowsHelp() {
+		for (String line : new String[] {"help", "help 1", "help x"}) {
+			String output = run(null, line);
+			assertFalse(output.contains("Unknown command"), line);
+			assertTrue(output.contains("Does stuff"), line);
+		}
+	}
+	
+	@Test
+	public void knownSubcommandShowsItsOwnHelp() {
+		for (String line : new String[] {"data n x", "data n", "dostuff a b", "tp nope", "subcommand extra"}) {
+			String output = run(null, line);
+			assertFalse(output.contains("Unknown command"), line);
+		}
+	}
+	
+	@Test
+	public void permissionDeniedIsNotUnknown() {
+		List<String> messages = new ArrayList<>();
+		run(TestSenders.player("Steve", messages, "other.permission"), "subcommand");
+		String output = String.join("\n", messages);
+		assertTrue(output.contains("You do not have permission"));
+		assertFalse(output.contains("Unknown command"));
+	}
+	
+	@Test
+	public void mistypedSubcommandIsSuggested() {
+		String output = run(null, "subcomand");
+		assertTrue(output.contains("Did you mean"));
+		assertTrue(output.contains("subcommand"));
+	}
+	
+}
@@ -0,0 +1,165 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the cooldown and ratelimit directives, using a fake clock for the limiters themselves.
+ */
+public class RateLimiterTest {
+	
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	private AtomicLong now = new AtomicLong(1000 * SECOND);
+	
+	@Test
+	public void parsesDurations() {
+		Object[][] cases = {
+				{"500ms", 500_000_000L},
+				{"5s", 5 * SECOND},
+				{"5sec", 5 * SECOND},
+				{"5", 5 * SECOND},
+				{"1.5m", 90 * SECOND},
+				{"2min", 120 * SECOND},
+				{"1h", 3600 * SECOND},
+				{"s", SECOND},
+				{"min", 60 * SECOND},
+				{"5 S", 5 * SECOND},
+				{"", -1L},
+				{"5d", -1L},
+				{"1.2.3s", -1L},
+				{"-5s", -1L},
+				{"five", -1L}
+		};
+		for (Object[] test : cases) {
+			assertEquals((long) (Long) test[1], RateLimiter.parseDuration((String) test[0]), (String) test[0]);
+		}
+	}
+	
+	@Test
+	public void parsesRates() {
+		for (String valid : new String[] {"10/min", "3/5s", "1 / 1h", "1000/1s"}) {
+			assertNotNull(RateLimiter.rate(valid), valid);
+		}
+		for (String invalid : new String[] {"10", "0/min", "-1/min", "x/min", "10/", "10/5d", "2000000000/1ms"}) {
+			assertNull(RateLimiter.rate(invalid), invalid);
+		}
+		assertNotNull(RateLimiter.cooldown("5s"));
+		assertNull(RateLimiter.cooldown("soon"));
+	}
+	
+	@Test
+	public void cooldownWaitsForPeriod() {
+		RateLimiter limiter = new RateLimiter(1, 5 * SECOND, 100, now::get);
+		assertEquals(0, limiter.acquire("a"));
+		assertEquals(5 * SECOND, limiter.acquire("a"));
+		assertEquals(0, limiter.acquire("b"));
+		now.addAndGet(2 * SECOND);
+		assertEquals(3 * SECOND, limiter.acquire("a"));
+		now.addAndGet(3 * SECOND);
+		assertEquals(0, limiter.acquire("a"));
+	}
+	
+	@Test
+	public void rateAllowsBursts() {
+		RateLimiter limiter = new RateLimiter(3, 6 * SECOND, 100, now::get);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, limiter.acquire("a"), "use " + i);
+		}
+		assertEquals(2 * SECOND, limiter.acquire("a"));
+		now.addAndGet(2 * SECOND);
+		assertEquals(0, limiter.acquire("a"));
+		assertEquals(2 * SECOND, limiter.acquire("a"));
+		now.addAndGet(60 * SECOND);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, limiter.acquire("a"), "use " + i + " after refilling");
+		}
+	}
+	
+	@Test
+	public void releaseGivesBackUse() {
+		RateLimiter limiter = new RateLimiter(1, 5 * SECOND, 100, now::get);
+		assertEquals(0, limiter.acquire("a"));
+		limiter.release("a");
+		assertEquals(0, limiter.acquire("a"));
+		assertTrue(limiter.acquire("a") > 0);
+		limiter.release("unknown");
+	}
+	
+	@Test
+	public void fullLimiterStillLimitsNewSenders() {
+		RateLimiter limiter = new RateLimiter(1, TimeUnit.HOURS.toNanos(1), 3, now::get);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, limiter.acquire(i));
+			now.addAndGet(SECOND);
+		}
+		assertEquals(0, limiter.acquire("new"));
+		assertTrue(limiter.acquire("new") > 0, "A new sender was not limited once the limiter was full");
+		// The bucket which would have refilled soonest was dropped to make room
+		assertEquals(0, limiter.acquire(0));
+		assertTrue(limiter.acquire(2) > 0);
+	}
+	
+	@Test
+	public void fullLimiterDropsRefilledBuckets() {
+		RateLimiter limiter = new RateLimiter(1, SECOND, 2, now::get);
+		assertEquals(0, limiter.acquire("a"));
+		now.addAndGet(SECOND / 2);
+		assertEquals(0, limiter.acquire("b"));
+		now.addAndGet(SECOND * 3 / 4);
+		assertEquals(0, limiter.acquire("c"));
+		assertTrue(limiter.acquire("b") > 0);
+		assertTrue(limiter.acquire("c") > 0);
+	}
+	
+	@Test
+	public void limitsAreTakenBeforeConversion() throws IOException {
+		AtomicInteger conversions = new AtomicInteger();
+		Command command = load("limited int:n color:c {\n\thook limited\n\tcooldown 1h\n\tbypass limit.bypass\n}\n");
+		command.registerTypeProvider(new TypeProvider<>("color", (s) -> {
+			conversions.incrementAndGet();
+			return s.equals("red") ? s : null;
+		}));
+		List<String> invoked = new ArrayList<>();
+		command.bindHooks(null, Collections.singletonMap("limited", (sender, values) -> invoked.add(sender.getName())));
+		List<String> messages = new ArrayList<>();
+		CommandSender limited = TestSenders.player("Carl", messages, "other.permission");
+		command.execute(limited, new String[] {"1", "blue"});
+		command.execute(limited, new String[] {"x", "red"});
+		assertTrue(invoked.isEmpty());
+		assertEquals(1, conversions.get());
+		// Arguments which did not fit gave their use back
+		command.execute(limited, new String[] {"1", "red"});
+		assertEquals(Collections.singletonList("Carl"), invoked);
+		messages.clear();
+		command.execute(limited, new String[] {"2", "red"});
+		assertEquals(2, conversions.get());
+		assertEquals(1, invoked.size());
+		assertTrue(messages.get(0).contains("You must wait"), messages.toString());
+		CommandSender bypassing = TestSenders.player("Dana", messages, "limit.bypass");
+		for (int i = 0; i < 3; i++) {
+			command.execute(bypassing, new String[] {"1", "red"});
+		}
+		assertEquals(4, invoked.size());
+	}
+	
+	private static Command load(String file) throws IOException {
+		return Command.fromStream(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+}
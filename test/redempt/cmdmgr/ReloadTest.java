@@ -0,0 +1,96 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reloads a registered command from a changed command file, checking that what the file does not define is kept for
+ * each command at the same path: type providers registered on subcommands, the uses senders made of limits, metrics
+ * and hooks bound without a listener.
+ */
+public class ReloadTest {
+	
+	private static final String FILE = String.join("\n",
+			"shop {",
+			"	buy string:item int:amount {",
+			"		hook buy",
+			"		cooldown 1h",
+			"	}",
+			"	admin {",
+			"		give color:c {",
+			"			hook give",
+			"		}",
+			"	}",
+			"}",
+			"");
+			
+	private List<String> invoked = new ArrayList<>();
+	
+	@BeforeAll
+	public static void install() {
+		TestServer.install();
+	}
+	
+	@Test
+	public void reloadKeepsStateByPath() throws IOException {
+		Command command = TestCommands.load(FILE);
+		Map<String, CommandInvoker> hooks = new HashMap<>();
+		hooks.put("buy", (sender, values) -> invoked.add("buy " + values[0]));
+		hooks.put("give", (sender, values) -> invoked.add("give " + values[0]));
+		command.bindHooks(null, hooks);
+		Command admin = command.getChildren().get(1);
+		TestCommands.quietly(() -> {
+			admin.registerTypeProvider(new TypeProvider<>("color", (s) -> s.equals("red") ? s : null));
+			return null;
+		});
+		command.register("reloadtest");
+		List<String> messages = new ArrayList<>();
+		Player carl = TestSenders.player("Carl", messages);
+		command.execute(carl, new String[] {"buy", "apple", "1"});
+		command.execute(carl, new String[] {"admin", "give", "red"});
+		
+		Command reloaded = TestCommands.quietly(() -> command.reload(stream(FILE.replace("\tadmin {", "\tsell string:item {\n\t\thook buy\n\t}\n\tadmin {"))));
+		assertNotSame(command, reloaded);
+		reloaded.execute(carl, new String[] {"admin", "give", "red"});
+		assertEquals(0, messages.size(), messages.toString());
+		reloaded.execute(carl, new String[] {"buy", "pear", "1"});
+		assertEquals(1, messages.size());
+		assertTrue(messages.get(0).contains("You must wait"), messages.toString());
+		reloaded.execute(TestSenders.player("Dana", messages), new String[] {"buy", "plum", "1"});
+		assertEquals(Arrays.asList("buy apple", "give red", "give red", "buy plum"), invoked);
+		for (Metrics.Snapshot snapshot : reloaded.snapshotMetrics()) {
+			if (snapshot.getName().startsWith("shop buy")) {
+				assertEquals(2, snapshot.getCalls(), snapshot.getName());
+			} else if (snapshot.getName().startsWith("shop admin give")) {
+				assertEquals(2, snapshot.getCalls(), snapshot.getName());
+			}
+		}
+		
+		// A changed cooldown starts afresh
+		Command changed = TestCommands.quietly(() -> reloaded.reload(stream(FILE.replace("cooldown 1h", "cooldown 2h"))));
+		messages.clear();
+		changed.execute(carl, new String[] {"buy", "fig", "1"});
+		assertEquals(0, messages.size(), messages.toString());
+		assertEquals("buy fig", invoked.get(invoked.size() - 1));
+	}
+	
+	private static InputStream stream(String file) {
+		return new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
@@ -0,0 +1,186 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sends commands marked remote through the loopback transport, so they are encoded, batched, decoded and run as they
+ * would be between two servers. The command registered here stands for the other server's copy of the command file,
+ * and a second copy which differs from it in places stands for a server with an outdated file.
+ */
+public class RemoteCommandsTest {
+	
+	private static final String FILE = String.join("\n",
+			"eco {",
+			"	pay string:target int:amount {",
+			"		hook pay",
+			"		permission eco.pay",
+			"		remote economy",
+			"	}",
+			"	echo multistring:words {",
+			"		hook echo",
+			"		remote economy",
+			"	}",
+			"	refund int:amount {",
+			"		hook refundAll",
+			"		remote economy",
+			"	}",
+			"	audit {",
+			"		hook audit",
+			"		permission eco.audit",
+			"		remote economy",
+			"	}",
+			"	reset {",
+			"		hook reset",
+			"		remote survival",
+			"	}",
+			"");
+	private static final String[] HOOKS = {"pay", "echo", "refundAll", "refund", "audit", "reset", "filler"};
+	private static final String ERROR = ChatColor.RED + "An error occurred in executing this command, please check console.";
+	
+	private static Command command;
+	private static Command outdated;
+	private static LoopbackTransport transport = new LoopbackTransport();
+	private static List<String> invoked = Collections.synchronizedList(new ArrayList<>());
+	
+	@BeforeAll
+	public static void load() throws IOException {
+		TestServer.install();
+		StringBuilder file = new StringBuilder(FILE);
+		// Enough children that the index of the last ones takes two bytes
+		for (int i = 0; i < 200; i++) {
+			file.append("\tfiller").append(i).append(" {\n\t\thook filler\n\t\tremote economy\n\t}\n");
+		}
+		file.append("}\n");
+		command = load(file.toString());
+		command.register("test");
+		outdated = load(file.toString().replace("hook refundAll", "hook refund").replace("\t\tpermission eco.audit\n", "").replace("remote survival", "remote economy"));
+		RemoteCommands.setServerName("lobby");
+	}
+	
+	private static Command load(String file) throws IOException {
+		Command command = Command.fromStream(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)));
+		Map<String, CommandInvoker> hooks = new HashMap<>();
+		for (String hook : HOOKS) {
+			hooks.put(hook, (sender, values) -> {
+				invoked.add(hook + " " + sender.getName() + " op=" + sender.isOp() + " player=" + (sender instanceof Player) + " " + Arrays.toString(values));
+				sender.sendMessage("Ran " + hook);
+			});
+		}
+		command.bindHooks(null, hooks);
+		return command;
+	}
+	
+	@BeforeEach
+	public void reset() {
+		TestServer.tick();
+		RemoteCommands.setTransport(transport);
+		invoked.clear();
+	}
+	
+	@Test
+	public void forwardedCommandRunsOnOtherServer() {
+		List<String> messages = new ArrayList<>();
+		Player player = TestSenders.player("Alex", messages, "eco.pay");
+		long batches = transport.getBatches();
+		command.execute(player, new String[] {"pay", "Bob", "5"});
+		command.execute(player, new String[] {"pay", "Carl", "7"});
+		assertTrue(invoked.isEmpty(), "Ran before the end of the tick");
+		TestServer.tick();
+		assertEquals(Arrays.asList("pay Alex op=false player=false [Bob, 5]", "pay Alex op=false player=false [Carl, 7]"), invoked);
+		assertEquals(Arrays.asList("Ran pay", "Ran pay"), messages);
+		assertEquals(batches + 1, transport.getBatches(), "Commands from one tick were not sent as one batch");
+	}
+	
+	@Test
+	public void permissionsAreCheckedOnOtherServer() {
+		List<String> messages = new ArrayList<>();
+		Player player = TestSenders.player("Dana", messages, "eco.audit");
+		// The outdated file has no permission on audit, so none is sent for it
+		outdated.execute(player, new String[] {"audit"});
+		TestServer.tick();
+		assertTrue(invoked.isEmpty());
+		assertEquals(Collections.singletonList(ChatColor.RED + "You do not have permission to execute that command."), messages);
+		messages.clear();
+		command.execute(player, new String[] {"audit"});
+		TestServer.tick();
+		assertEquals(Collections.singletonList("audit Dana op=false player=false []"), invoked);
+	}
+	
+	@Test
+	public void differentHookIsRefused() {
+		List<String> messages = new ArrayList<>();
+		outdated.execute(TestSenders.player("Erin", messages), new String[] {"refund", "3"});
+		TestServer.tick();
+		assertTrue(invoked.isEmpty());
+		assertEquals(Collections.singletonList(ERROR), messages);
+	}
+	
+	@Test
+	public void commandForOtherServerIsRefused() {
+		List<String> messages = new ArrayList<>();
+		outdated.execute(TestSenders.player("Finn", messages), new String[] {"reset"});
+		TestServer.tick();
+		assertTrue(invoked.isEmpty());
+		assertEquals(Collections.singletonList(ERROR), messages);
+		messages.clear();
+		// Delivered to this server, which is not the one the command is marked remote with
+		RemoteCommands.setTransport((server, payload) -> RemoteCommands.receive(payload));
+		command.execute(TestSenders.player("Finn", messages, "eco.pay"), new String[] {"pay", "Bob", "5"});
+		TestServer.tick();
+		assertTrue(invoked.isEmpty());
+		assertEquals(Collections.singletonList(ERROR), messages);
+	}
+	
+	@Test
+	public void largeIndexesAndArgumentCounts() {
+		List<String> messages = new ArrayList<>();
+		Player player = TestSenders.player("Gale", messages);
+		command.execute(player, new String[] {"filler150"});
+		String[] words = new String[300];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = "w" + i;
+		}
+		String[] args = new String[words.length + 1];
+		args[0] = "echo";
+		System.arraycopy(words, 0, args, 1, words.length);
+		command.execute(player, args);
+		TestServer.tick();
+		assertEquals(Arrays.asList("filler Gale op=false player=false []", "echo Gale op=false player=false [" + String.join(" ", words) + "]"), invoked);
+	}
+	
+	@Test
+	public void varIntBoundaries() throws IOException {
+		int[] values = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+		int[] sizes = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 5, 5};
+		for (int i = 0; i < values.length; i++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			RemoteCommands.writeVarInt(new DataOutputStream(bytes), values[i]);
+			assertEquals(sizes[i], bytes.size(), "Size of " + values[i]);
+			assertEquals(values[i], RemoteCommands.readVarInt(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		}
+		byte[] malformed = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+		assertThrows(IOException.class, () -> RemoteCommands.readVarInt(new DataInputStream(new ByteArrayInputStream(malformed))));
+	}
+	
+}
@@ -0,0 +1,108 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks what a sender gets from a type provider whose tab handler misses its deadline, using a tab handler which
+ * blocks until the test lets it finish.
+ */
+public class TabDeadlineTest {
+	
+	private static final List<String> VALUES = Arrays.asList("apple", "apricot", "avocado", "banana");
+	
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+	private TypeProvider<String> provider = new TypeProvider<>("fruit", (s) -> s).setTab((sender) -> {
+		try {
+			gate.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return VALUES;
+	}).setTabDeadline(200, TimeUnit.MILLISECONDS);
+	private Player sender = TestSenders.player("Alex", new ArrayList<>());
+	
+	@Test
+	public void missedDeadlineGetsLastCompletions() {
+		assertEquals(Arrays.asList("apple", "apricot", "avocado"), provider.complete("a", sender));
+		assertEquals(0, provider.getTabDeadlineMisses());
+		gate = new CountDownLatch(1);
+		assertEquals(Arrays.asList("apple", "apricot"), provider.complete("ap", sender));
+		assertEquals(1, provider.getTabDeadlineMisses());
+		assertEquals(2, provider.getTabDeadlineLookups());
+		gate.countDown();
+	}
+	
+	@Test
+	public void lateResultIsKept() {
+		assertEquals(Arrays.asList("apple", "apricot", "avocado"), provider.complete("a", sender));
+		CountDownLatch gate = new CountDownLatch(1);
+		this.gate = gate;
+		assertTrue(provider.complete("b", sender).isEmpty());
+		assertEquals(1, provider.getTabDeadlineMisses());
+		this.gate = new CountDownLatch(1);
+		gate.countDown();
+		// Either waits for the late lookup for "b", or misses the deadline again and gets its stored result
+		assertEquals(Arrays.asList("banana"), provider.complete("b", sender));
+		this.gate.countDown();
+	}
+	
+	@Test
+	public void backspaceDoesNotWaitForLongerPrefix() {
+		assertEquals(Arrays.asList("apple", "apricot", "avocado"), provider.complete("a", sender));
+		CountDownLatch gate = new CountDownLatch(1);
+		this.gate = gate;
+		assertEquals(Arrays.asList("apple", "apricot"), provider.complete("ap", sender));
+		// The lookup for "ap" is still running, and would only find what starts with "ap" if it finished now
+		Thread release = new Thread(() -> {
+			sleep(20);
+			gate.countDown();
+		});
+		release.start();
+		long start = System.nanoTime();
+		assertEquals(Arrays.asList("apple", "apricot", "avocado"), provider.complete("a", sender));
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(20), "Waited for the lookup in progress");
+		assertEquals(2, provider.getTabDeadlineMisses());
+	}
+	
+	@Test
+	public void differentWordDoesNotWaitForLookupInProgress() {
+		assertEquals(Arrays.asList("apple", "apricot", "avocado"), provider.complete("a", sender));
+		CountDownLatch gate = new CountDownLatch(1);
+		this.gate = gate;
+		assertEquals(Arrays.asList("apple", "apricot"), provider.complete("ap", sender));
+		long start = System.nanoTime();
+		// The last completions are for "a", so none of them apply to "b"
+		assertTrue(provider.complete("b", sender).isEmpty());
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100), "Waited for the lookup in progress");
+		assertEquals(2, provider.getTabDeadlineMisses());
+		gate.countDown();
+	}
+	
+	@Test
+	public void longerPrefixWaitsForLookupInProgress() {
+		gate = new CountDownLatch(1);
+		assertTrue(provider.complete("a", sender).isEmpty());
+		gate.countDown();
+		assertEquals(Arrays.asList("apple", "apricot"), provider.complete("ap", sender));
+		assertEquals(2, provider.getTabDeadlineLookups());
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+}
@@ -0,0 +1,137 @@
+package redempt.cmdmgr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a sender's tab completion session gives the same completions as a fresh lookup, which is made for
+ * another sender whose session is forgotten first. The type provider counts its lookups, so a test can tell whether
+ * completions were narrowed from the session or looked up again, and its values can change between requests, so a
+ * session which should have been reset would give stale completions.
+ */
+public class TabSessionTest {
+	
+	private static final String TREE = String.join("\n",
+			"tabsession {",
+			"	apple {",
+			"	}",
+			"	apricot {",
+			"	}",
+			"	banana {",
+			"	}",
+			"	give fruit:first fruit:second {",
+			"		hook give",
+			"	}",
+			"}",
+			"");
+			
+	private List<String> values = new ArrayList<>(Arrays.asList("apple", "apricot", "avocado", "banana"));
+	private AtomicInteger lookups = new AtomicInteger();
+	private Command command;
+	private Player sender = TestSenders.player("Session", new ArrayList<>());
+	private Player fresh = TestSenders.player("Fresh", new ArrayList<>());
+	
+	@BeforeEach
+	public void load() throws IOException {
+		command = TestCommands.load(TREE);
+		TestCommands.quietly(() -> {
+			command.registerTypeProvider(new TypeProvider<>("fruit", (s) -> s).setTab((sender) -> {
+				lookups.incrementAndGet();
+				return new ArrayList<>(values);
+			}));
+			return null;
+		});
+		Command.invalidateTabSessions();
+	}
+	
+	@AfterEach
+	public void resetExpiry() {
+		Command.setTabSessionExpiry(10, TimeUnit.SECONDS, 1024);
+	}
+	
+	@Test
+	public void longerPrefixIsNarrowed() {
+		assertEquals(fresh("give", "a"), complete("give", "a"));
+		int before = lookups.get();
+		List<String> completions = complete("give", "ap");
+		assertEquals(before, lookups.get(), "Completions were looked up again");
+		assertEquals(fresh("give", "ap"), completions);
+		assertEquals(Arrays.asList("apple", "apricot"), completions);
+		assertEquals(fresh("give", "apr"), complete("give", "apr"));
+		assertEquals(fresh("give", "apricot", "b"), complete("give", "apricot", "b"));
+		assertEquals(fresh("give", "apricot", "ba"), complete("give", "apricot", "ba"));
+		// Subcommand names are narrowed the same way
+		assertEquals(fresh("a"), complete("a"));
+		assertEquals(fresh("ap"), complete("ap"));
+		assertEquals(fresh("apr"), complete("apr"));
+		assertEquals(fresh("gi"), complete("gi"));
+	}
+	
+	@Test
+	public void backspaceLooksUpAgain() {
+		assertEquals(fresh("give", "ap"), complete("give", "ap"));
+		values.add("acorn");
+		int before = lookups.get();
+		List<String> completions = complete("give", "a");
+		assertEquals(before + 1, lookups.get(), "Completions were not looked up again");
+		assertEquals(fresh("give", "a"), completions);
+		assertTrue(completions.contains("acorn"), completions.toString());
+		assertEquals(fresh("ap"), complete("ap"));
+		assertEquals(fresh("a"), complete("a"));
+		assertEquals(fresh(""), complete(""));
+	}
+	
+	@Test
+	public void differentArgumentLooksUpAgain() {
+		assertEquals(fresh("give", "a"), complete("give", "a"));
+		values.add("avocet");
+		// A longer prefix, but of the next argument
+		assertEquals(fresh("give", "apple", "av"), complete("give", "apple", "av"));
+		assertEquals(Arrays.asList("avocado", "avocet"), complete("give", "apple", "av"));
+		values.add("avalanche");
+		// The same prefix after a different preceding argument
+		int before = lookups.get();
+		List<String> completions = complete("give", "apricot", "av");
+		assertEquals(before + 1, lookups.get(), "Completions were not looked up again");
+		assertEquals(fresh("give", "apricot", "av"), completions);
+		assertEquals(Arrays.asList("avocado", "avocet", "avalanche"), completions);
+		// From completing a subcommand name to an argument
+		assertEquals(fresh("give"), complete("give"));
+		assertEquals(fresh("give", "give"), complete("give", "give"));
+	}
+	
+	@Test
+	public void expiredSessionLooksUpAgain() throws InterruptedException {
+		Command.setTabSessionExpiry(50, TimeUnit.MILLISECONDS, 1024);
+		assertEquals(fresh("give", "a"), complete("give", "a"));
+		values.add("apex");
+		Thread.sleep(100);
+		int before = lookups.get();
+		List<String> completions = complete("give", "ap");
+		assertEquals(before + 1, lookups.get(), "Completions were not looked up again");
+		assertEquals(fresh("give", "ap"), completions);
+		assertEquals(Arrays.asList("apple", "apricot", "apex"), completions);
+	}
+	
+	private List<String> complete(String... args) {
+		return command.tabComplete(sender, args);
+	}
+	
+	private List<String> fresh(String... args) {
+		Command.invalidateTabSession(fresh);
+		return command.tabComplete(fresh, args);
+	}
+	
+}
@@ -0,0 +1,51 @@
+package redempt.cmdmgr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads commands for tests without printing the line CmdMgr prints for each command loaded and type provider
+ * registered, so the test output only shows what went wrong.
+ */
+final class TestCommands {
+	
+	private TestCommands() {
+	}
+	
+	/**
+	 * Loads the first command in a command file.
+	 */
+	static Command load(String file) throws IOException {
+		return quietly(() -> Command.fromStream(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8))));
+	}
+	
+	/**
+	 * Runs an action without printing anything it prints.
+	 * @return What the action returned
+	 */
+	static <T> T quietly(Action<T> action) throws IOException {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			
+			@Override
+			public void write(int b) {
+			}
+			
+		}));
+		try {
+			return action.run();
+		} finally {
+			System.setOut(out);
+		}
+	}
+	
+	static interface Action<T> {
+		
+		public T run() throws IOException;
+		
+	}
+	
+}
@@ -0,0 +1,57 @@
+package redempt.cmdmgr;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/**
+ * Senders for tests, made as proxies so no server is needed. They collect the messages sent to them and have only
+ * the permissions they are given, or every permission if given none.
+ */
+final class TestSenders {
+	
+	private TestSenders() {
+	}
+	
+	static CommandSender console(List<String> messages, String... permissions) {
+		return (CommandSender) create(CommandSender.class, "CONSOLE", null, messages, new HashSet<>(Arrays.asList(permissions)));
+	}
+	
+	static Player player(String name, List<String> messages, String... permissions) {
+		UUID id = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+		return (Player) create(Player.class, name, id, messages, new HashSet<>(Arrays.asList(permissions)));
+	}
+	
+	private static Object create(Class<?> type, String name, UUID id, List<String> messages, Set<String> permissions) {
+		return Proxy.newProxyInstance(TestSenders.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "sendMessage":
+					messages.add((String) args[0]);
+					return null;
+				case "hasPermission":
+					return permissions.isEmpty() || permissions.contains(args[0]);
+				case "isOp":
+					return permissions.isEmpty();
+				case "getName":
+				case "toString":
+					return name;
+				case "getUniqueId":
+					return id;
+				case "hashCode":
+					return name.hashCode();
+				case "equals":
+					return proxy == args[0];
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+}
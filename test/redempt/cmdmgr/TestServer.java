@@ -0,0 +1,97 @@
+package redempt.cmdmgr;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * A server for tests, made as a proxy, whose scheduler only runs tasks when a test calls {@link #tick()}. Installing
+ * it also sets the plugin CmdMgr schedules with and a command map to register commands with.
+ */
+final class TestServer {
+	
+	private static Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	
+	private TestServer() {
+	}
+	
+	/**
+	 * Installs the server, unless it already is. The server can only be set once per JVM.
+	 */
+	static synchronized void install() {
+		if (Bukkit.getServer() != null) {
+			return;
+		}
+		Logger logger = Logger.getLogger("CmdMgrTest");
+		logger.setLevel(Level.WARNING);
+		BukkitScheduler scheduler = create(BukkitScheduler.class, (name, args) -> {
+			if (name.startsWith("runTask")) {
+				tasks.add((Runnable) args[1]);
+			}
+			return null;
+		});
+		Server server = create(Server.class, (name, args) -> {
+			switch (name) {
+				case "getScheduler":
+					return scheduler;
+				case "isPrimaryThread":
+					return true;
+				case "getLogger":
+					return logger;
+				case "getConsoleSender":
+					return TestSenders.console(new ArrayList<>());
+				case "getName":
+				case "getVersion":
+				case "getBukkitVersion":
+					return "Test";
+				default:
+					return null;
+			}
+		});
+		Bukkit.setServer(server);
+		AsyncCommands.setPlugin(create(Plugin.class, (name, args) -> null));
+		Command.setCommandMap(new SimpleCommandMap(server));
+	}
+	
+	/**
+	 * Runs the tasks scheduled so far, and those they schedule, as if a server tick had passed.
+	 */
+	static void tick() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T create(Class<T> type, Answer answer) {
+		return (T) Proxy.newProxyInstance(TestServer.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return type.getSimpleName();
+				default:
+					return answer.answer(method.getName(), args);
+			}
+		});
+	}
+	
+	private static interface Answer {
+		
+		public Object answer(String method, Object[] args);
+		
+	}
+	
+}